@@ -0,0 +1,22 @@
+package org.phenoscape.obd.loader;
+
+/**
+ * A single timed operation run by the BenchmarkRunner. Benchmarks live in the loader package
+ * so that they can exercise package-private translation methods directly.
+ */
+public abstract class Benchmark {
+
+    public abstract String getName();
+
+    /**
+     * Build the synthetic input for the given dataset size. Called once before any timed runs.
+     */
+    public abstract void setUp(int size) throws Exception;
+
+    /**
+     * Run the operation once over the whole synthetic input. The returned value should depend on
+     * the results so that the work cannot be optimized away.
+     */
+    public abstract int run() throws Exception;
+
+}
@@ -0,0 +1,171 @@
+package org.phenoscape.obd.loader;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the translation benchmarks over synthetic datasets and writes the timings as JSON. Each
+ * benchmark is set up once per dataset size, run for a number of untimed warmup iterations, and then
+ * timed over the measured iterations.
+ */
+public class BenchmarkRunner {
+
+    /** The benchmark-sizes system property may contain a comma-separated list of synthetic dataset sizes. */
+    public static final String SIZES = "benchmark-sizes";
+    /** The benchmark-warmup system property may contain the number of untimed iterations run before measuring. */
+    public static final String WARMUP_ITERATIONS = "benchmark-warmup";
+    /** The benchmark-iterations system property may contain the number of timed iterations. */
+    public static final String ITERATIONS = "benchmark-iterations";
+    /** The benchmark-filter system property may contain text which benchmark names must include to be run. */
+    public static final String FILTER = "benchmark-filter";
+    /** The benchmark-output system property may contain the path of the JSON results file. */
+    public static final String OUTPUT = "benchmark-output";
+
+    private final int warmupIterations;
+    private final int iterations;
+    // accumulating benchmark results keeps the JIT from discarding the measured work
+    private long sink = 0;
+
+    public BenchmarkRunner(int warmupIterations, int iterations) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = Math.max(1, iterations);
+    }
+
+    public static List<Benchmark> getBenchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new TranslateDataSetBenchmark());
+        benchmarks.add(new TranslateOBOClassBenchmark(false));
+        benchmarks.add(new TranslateOBOClassBenchmark(true));
+        benchmarks.add(new CreateZfinPhenotypeBenchmark());
+        benchmarks.add(new TranslatePublicationRecordBenchmark());
+        benchmarks.add(new StreamPublicationsBenchmark());
+        benchmarks.add(new RestoreOntologySnapshotBenchmark());
+        benchmarks.add(new ParseGOAnnotationLineBenchmark());
+        return benchmarks;
+    }
+
+    public Result measure(Benchmark benchmark, int size) throws Exception {
+        benchmark.setUp(size);
+        for (int i = 0; i < this.warmupIterations; i++) {
+            this.sink += benchmark.run();
+        }
+        final double[] millis = new double[this.iterations];
+        for (int i = 0; i < this.iterations; i++) {
+            final long start = System.nanoTime();
+            this.sink += benchmark.run();
+            millis[i] = (System.nanoTime() - start) / 1000000.0;
+        }
+        final Result result = new Result(benchmark.getName(), size, millis);
+        log().info(String.format("%s [size %d]: %.3f +/- %.3f ms/op", result.name, size, result.getMean(), result.getStandardDeviation()));
+        return result;
+    }
+
+    public static void writeJSON(List<Result> results, String path) throws IOException {
+        final PrintWriter writer = new PrintWriter(new FileWriter(path));
+        try {
+            writer.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                final Result result = results.get(i);
+                writer.println("  {");
+                writer.println("    \"benchmark\": \"" + result.name.replace("\\", "\\\\").replace("\"", "\\\"") + "\",");
+                writer.println("    \"size\": " + result.size + ",");
+                writer.println("    \"mode\": \"avgt\",");
+                writer.println("    \"iterations\": " + result.millis.length + ",");
+                writer.println("    \"unit\": \"ms/op\",");
+                writer.println("    \"score\": " + result.getMean() + ",");
+                writer.println("    \"scoreError\": " + result.getStandardDeviation() + ",");
+                writer.println("    \"min\": " + result.getMin() + ",");
+                writer.println("    \"max\": " + result.getMax() + ",");
+                writer.println("    \"nsPerItem\": " + (result.getMean() * 1000000.0 / Math.max(1, result.size)) + ",");
+                final StringBuffer raw = new StringBuffer();
+                for (int j = 0; j < result.millis.length; j++) {
+                    if (j > 0) {
+                        raw.append(", ");
+                    }
+                    raw.append(result.millis[j]);
+                }
+                writer.println("    \"rawData\": [" + raw + "]");
+                writer.println((i < results.size() - 1) ? "  }," : "  }");
+            }
+            writer.println("]");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+    public static class Result {
+
+        private final String name;
+        private final int size;
+        private final double[] millis;
+
+        public Result(String name, int size, double[] millis) {
+            this.name = name;
+            this.size = size;
+            this.millis = millis;
+        }
+
+        public double getMean() {
+            double total = 0;
+            for (double value : this.millis) {
+                total += value;
+            }
+            return total / this.millis.length;
+        }
+
+        public double getStandardDeviation() {
+            if (this.millis.length < 2) {
+                return 0;
+            }
+            final double mean = this.getMean();
+            double squares = 0;
+            for (double value : this.millis) {
+                squares += (value - mean) * (value - mean);
+            }
+            return Math.sqrt(squares / (this.millis.length - 1));
+        }
+
+        public double getMin() {
+            final double[] sorted = this.millis.clone();
+            Arrays.sort(sorted);
+            return sorted[0];
+        }
+
+        public double getMax() {
+            final double[] sorted = this.millis.clone();
+            Arrays.sort(sorted);
+            return sorted[sorted.length - 1];
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        Logger.getRootLogger().setLevel(Level.WARN);
+        Logger.getLogger(BenchmarkRunner.class).setLevel(Level.INFO);
+        final BenchmarkRunner runner = new BenchmarkRunner(Integer.getInteger(WARMUP_ITERATIONS, 5), Integer.getInteger(ITERATIONS, 10));
+        final String filter = System.getProperty(FILTER, "");
+        final List<Result> results = new ArrayList<Result>();
+        for (String size : System.getProperty(SIZES, "1000").split(",")) {
+            for (Benchmark benchmark : getBenchmarks()) {
+                if (benchmark.getName().contains(filter)) {
+                    results.add(runner.measure(benchmark, Integer.parseInt(size.trim())));
+                }
+            }
+        }
+        final String output = System.getProperty(OUTPUT, "benchmark-results.json");
+        writeJSON(results, output);
+        Logger.getLogger(BenchmarkRunner.class).info("Wrote " + results.size() + " results to " + output + " (" + runner.sink + ")");
+    }
+
+}
@@ -0,0 +1,35 @@
+package org.phenoscape.obd.loader;
+
+import java.util.List;
+
+/**
+ * Times ZfinObdBridge.createPhenotype on synthetic rows of the ZFIN phenotype file.
+ */
+public class CreateZfinPhenotypeBenchmark extends Benchmark {
+
+    private ZfinObdBridge bridge;
+    private final TSVCursor cursor = new TSVCursor();
+    private List<String> lines;
+
+    @Override
+    public String getName() {
+        return "ZfinObdBridge.createPhenotype";
+    }
+
+    @Override
+    public void setUp(int size) {
+        final SyntheticData data = new SyntheticData();
+        this.bridge = new ZfinObdBridge(new OntologyIndex(data.createZfinSession(size)));
+        this.lines = data.createZfinPhenotypeLines(size);
+    }
+
+    @Override
+    public int run() {
+        int length = 0;
+        for (String line : this.lines) {
+            length += this.bridge.createPhenotype(this.cursor.reset(line)).getId().length();
+        }
+        return length;
+    }
+
+}
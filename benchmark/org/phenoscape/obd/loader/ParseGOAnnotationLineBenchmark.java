@@ -0,0 +1,34 @@
+package org.phenoscape.obd.loader;
+
+import java.util.List;
+
+/**
+ * Times ZFINGOAnnotationsLoader.parseAnnotationLine on synthetic GO annotation lines.
+ */
+public class ParseGOAnnotationLineBenchmark extends Benchmark {
+
+    private final ZFINGOAnnotationsLoader loader = new ZFINGOAnnotationsLoader();
+    private List<String> lines;
+
+    @Override
+    public String getName() {
+        return "ZFINGOAnnotationsLoader.parseAnnotationLine";
+    }
+
+    @Override
+    public void setUp(int size) {
+        this.lines = new SyntheticData().createGOAnnotationLines(size);
+    }
+
+    @Override
+    public int run() {
+        int statements = 0;
+        for (String line : this.lines) {
+            if (this.loader.parseAnnotationLine(line) != null) {
+                statements++;
+            }
+        }
+        return statements;
+    }
+
+}
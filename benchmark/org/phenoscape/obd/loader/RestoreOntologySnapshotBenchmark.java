@@ -0,0 +1,160 @@
+package org.phenoscape.obd.loader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.obo.datamodel.AnnotatedObject;
+import org.obo.datamodel.Dbxref;
+import org.obo.datamodel.IdentifiedObject;
+import org.obo.datamodel.Link;
+import org.obo.datamodel.LinkedObject;
+import org.obo.datamodel.Namespace;
+import org.obo.datamodel.OBOProperty;
+import org.obo.datamodel.OBORestriction;
+import org.obo.datamodel.OBOSession;
+import org.obo.datamodel.ObsoletableObject;
+import org.obo.datamodel.Synonym;
+import org.obo.datamodel.TermSubset;
+
+/**
+ * Times OntologySnapshot.read restoring a session parsed from a synthetic OBO file. The restored session is
+ * compared with the parsed one once during setUp, so a snapshot which loses anything the loaders read fails
+ * the benchmark rather than timing a wrong result.
+ */
+public class RestoreOntologySnapshotBenchmark extends Benchmark {
+
+    private byte[] snapshot;
+
+    @Override
+    public String getName() {
+        return "OntologySnapshot.read";
+    }
+
+    @Override
+    public void setUp(int size) throws Exception {
+        final File oboFile = File.createTempFile("synthetic", ".obo");
+        oboFile.deleteOnExit();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(oboFile), "UTF-8");
+        try {
+            writer.write(new SyntheticData().createOBOFile(size));
+        } finally {
+            writer.close();
+        }
+        final OBOSession parsed = new OntologyLoader().parseOntologies(Collections.singletonList(oboFile));
+        if (parsed == null) {
+            throw new IllegalStateException("Failed parsing synthetic ontology " + oboFile);
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(output);
+        new OntologySnapshot().write(parsed, data);
+        data.close();
+        this.snapshot = output.toByteArray();
+        final List<String> expected = this.describe(parsed);
+        final List<String> restored = this.describe(this.restore());
+        for (int i = 0; i < Math.max(expected.size(), restored.size()); i++) {
+            final String expectedLine = (i < expected.size()) ? expected.get(i) : null;
+            final String restoredLine = (i < restored.size()) ? restored.get(i) : null;
+            if ((expectedLine == null) || !expectedLine.equals(restoredLine)) {
+                throw new IllegalStateException("Restored session differs from parsed session: expected " + expectedLine + " but was " + restoredLine);
+            }
+        }
+    }
+
+    @Override
+    public int run() throws Exception {
+        return this.restore().getObjects().size();
+    }
+
+    private OBOSession restore() throws Exception {
+        return new OntologySnapshot().read(new DataInputStream(new ByteArrayInputStream(this.snapshot)));
+    }
+
+    /**
+     * Describe everything in the session that a snapshot is meant to keep, one line per item in session order.
+     * Unordered collections are sorted so that equal sessions are described the same way.
+     */
+    private List<String> describe(OBOSession session) {
+        final List<String> lines = new ArrayList<String>();
+        for (Namespace namespace : session.getNamespaces()) {
+            lines.add("namespace " + namespace.getID() + " " + namespace.getPath());
+        }
+        lines.add("default namespace " + session.getDefaultNamespace());
+        for (TermSubset subset : session.getSubsets()) {
+            lines.add("subset " + subset.getName() + " " + subset.getDesc());
+        }
+        lines.add("synonym types " + session.getSynonymTypes().size());
+        for (IdentifiedObject object : session.getObjects()) {
+            lines.add("object " + object.getID() + " " + object.getClass().getName() + " " + object.isAnonymous());
+            if (object.isBuiltIn()) {
+                continue;
+            }
+            if (object instanceof AnnotatedObject) {
+                final AnnotatedObject annotated = (AnnotatedObject)object;
+                lines.add("  name " + annotated.getName() + " namespace " + annotated.getNamespace() + " obsolete " + annotated.isObsolete());
+                lines.add("  def " + annotated.getDefinition() + " " + this.describeDbxrefs(annotated.getDefDbxrefs()));
+                lines.add("  comment " + annotated.getComment());
+                lines.add("  alt_ids " + this.sorted(annotated.getSecondaryIDs()));
+                lines.add("  xrefs " + this.describeDbxrefs(annotated.getDbxrefs()));
+                final List<String> synonyms = new ArrayList<String>();
+                for (Synonym synonym : annotated.getSynonyms()) {
+                    synonyms.add(synonym.getText() + " " + synonym.getScope() + " " + ((synonym.getSynonymType() != null) ? synonym.getSynonymType().getID() : null) + " " + this.describeDbxrefs(synonym.getXrefs()));
+                }
+                lines.add("  synonyms " + this.sorted(synonyms));
+                final List<String> subsets = new ArrayList<String>();
+                for (TermSubset subset : annotated.getSubsets()) {
+                    subsets.add(subset.getName());
+                }
+                lines.add("  subsets " + this.sorted(subsets));
+                lines.add("  replaced_by " + this.describeObjects(annotated.getReplacedBy()) + " consider " + this.describeObjects(annotated.getConsiderReplacements()));
+            }
+            if (object instanceof OBOProperty) {
+                final OBOProperty property = (OBOProperty)object;
+                lines.add("  transitive " + property.isTransitive() + " symmetric " + property.isSymmetric() + " reflexive " + property.isReflexive() + " cyclic " + property.isCyclic());
+            }
+            final List<String> parents = new ArrayList<String>();
+            for (Link link : ((LinkedObject)object).getParents()) {
+                String description = link.getType().getID() + " " + link.getParent().getID() + " " + link.getNamespace() + " " + link.isImplied();
+                if (link instanceof OBORestriction) {
+                    final OBORestriction restriction = (OBORestriction)link;
+                    description += " " + restriction.completes() + " " + restriction.isNecessarilyTrue() + " " + restriction.getCardinality();
+                }
+                parents.add(description);
+            }
+            lines.add("  parents " + this.sorted(parents));
+        }
+        return lines;
+    }
+
+    private String describeDbxrefs(Collection<Dbxref> dbxrefs) {
+        final List<String> descriptions = new ArrayList<String>();
+        for (Dbxref dbxref : dbxrefs) {
+            descriptions.add(dbxref.getDatabase() + ":" + dbxref.getDatabaseID() + " " + dbxref.getDesc() + " " + dbxref.getType());
+        }
+        return this.sorted(descriptions).toString();
+    }
+
+    private String describeObjects(Collection<ObsoletableObject> objects) {
+        final List<String> ids = new ArrayList<String>();
+        for (ObsoletableObject object : objects) {
+            ids.add(object.getID());
+        }
+        return this.sorted(ids).toString();
+    }
+
+    private List<String> sorted(Collection<String> values) {
+        final List<String> list = new ArrayList<String>(values);
+        Collections.sort(list);
+        return list;
+    }
+
+}
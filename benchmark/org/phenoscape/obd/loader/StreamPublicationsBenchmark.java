@@ -0,0 +1,42 @@
+package org.phenoscape.obd.loader;
+
+import java.io.ByteArrayInputStream;
+
+import org.obd.model.Graph;
+
+/**
+ * Times OBDPublicationBridge.translate reading a synthetic EndNote XML export as a stream, with
+ * translated records passed to a writer which only counts them.
+ */
+public class StreamPublicationsBenchmark extends Benchmark {
+
+    private byte[] endnoteXML;
+
+    @Override
+    public String getName() {
+        return "OBDPublicationBridge.translate (stream)";
+    }
+
+    @Override
+    public void setUp(int size) throws Exception {
+        this.endnoteXML = new SyntheticData().createEndNoteXML(size);
+    }
+
+    @Override
+    public int run() throws Exception {
+        final CountingGraphWriter writer = new CountingGraphWriter();
+        new OBDPublicationBridge().translate(new ByteArrayInputStream(this.endnoteXML), writer, 1000);
+        return writer.statements;
+    }
+
+    private static class CountingGraphWriter implements GraphWriter {
+
+        private int statements = 0;
+
+        public void putGraph(Graph graph) {
+            this.statements += graph.getStatements().size();
+        }
+
+    }
+
+}
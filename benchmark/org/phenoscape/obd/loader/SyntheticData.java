@@ -0,0 +1,257 @@
+package org.phenoscape.obd.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.obo.datamodel.OBOClass;
+import org.obo.datamodel.OBOProperty;
+import org.obo.datamodel.OBOSession;
+import org.obo.datamodel.impl.DbxrefImpl;
+import org.obo.datamodel.impl.OBOClassImpl;
+import org.obo.datamodel.impl.OBOPropertyImpl;
+import org.obo.datamodel.impl.OBORestrictionImpl;
+import org.obo.datamodel.impl.OBOSessionImpl;
+import org.phenoscape.model.Character;
+import org.phenoscape.model.DataSet;
+import org.phenoscape.model.Phenotype;
+import org.phenoscape.model.State;
+import org.phenoscape.model.Taxon;
+
+/**
+ * Generates inputs resembling the real data files, using a fixed seed so that every run of a
+ * benchmark sees the same data.
+ */
+public class SyntheticData {
+
+    private static final String[] ZFIN_QUALITIES = {"normal", "abnormal", "absent", "present"};
+    private static final String[] GO_ASPECTS = {"P", "F", "C"};
+    private final Random random = new Random(42);
+    private final OBOProperty partOf = new OBOPropertyImpl("OBO_REL:part_of");
+
+    /**
+     * Create a data set with the given number of characters, each with three states carrying one phenotype,
+     * and a matrix of roughly the square root of that many taxa.
+     */
+    public DataSet createDataSet(int size) {
+        final DataSet dataset = new DataSet();
+        dataset.setPublication("PMID:" + this.random.nextInt(1000000));
+        dataset.setCurators("Synthetic");
+        final List<Taxon> taxa = new ArrayList<Taxon>();
+        final int taxonCount = Math.max(1, (int)Math.sqrt(size));
+        for (int i = 0; i < taxonCount; i++) {
+            final Taxon taxon = dataset.newTaxon();
+            taxon.setValidName(new OBOClassImpl("TTO:" + (1000 + i), "Taxon " + i));
+            taxon.setPublicationName("Taxon " + i);
+            taxa.add(taxon);
+        }
+        for (int i = 0; i < size; i++) {
+            final Character character = dataset.newCharacter();
+            character.setLabel("Character " + i);
+            final List<State> states = new ArrayList<State>();
+            for (int j = 0; j < 3; j++) {
+                final State state = character.newState();
+                state.setLabel("State " + j);
+                final Phenotype phenotype = state.newPhenotype();
+                phenotype.setEntity(this.createClass(this.random.nextInt(4) == 0));
+                phenotype.setQuality(new OBOClassImpl(this.createID("PATO")));
+                states.add(state);
+            }
+            for (Taxon taxon : taxa) {
+                dataset.setStateForTaxon(taxon, character, states.get(this.random.nextInt(states.size())));
+            }
+        }
+        return dataset;
+    }
+
+    /**
+     * Create a mix of atomic and post-composed classes, roughly one in four post-composed.
+     */
+    public List<OBOClass> createClasses(int size) {
+        final List<OBOClass> classes = new ArrayList<OBOClass>();
+        for (int i = 0; i < size; i++) {
+            classes.add(this.createClass(this.random.nextInt(4) == 0));
+        }
+        return classes;
+    }
+
+    /**
+     * Create an ontology session of ZFA terms, each with a TAO dbxref and some with an alternate ID.
+     */
+    public OBOSession createZfinSession(int size) {
+        final OBOSession session = new OBOSessionImpl();
+        for (int i = 0; i < size; i++) {
+            final OBOClassImpl term = new OBOClassImpl(String.format("ZFA:%07d", i));
+            term.addDbxref(new DbxrefImpl("TAO", String.format("%07d", i)));
+            if (i % 10 == 0) {
+                term.addSecondaryID(String.format("ZFA:%07d", size + i));
+            }
+            session.addObject(term);
+        }
+        return session;
+    }
+
+    /**
+     * Create lines of the ZFIN phenotype file referring to the terms created by createZfinSession.
+     */
+    public List<String> createZfinPhenotypeLines(int size) {
+        final List<String> rows = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            final String[] columns = new String[10];
+            columns[0] = "ZDB-GENO-" + i;
+            columns[1] = "genotype" + i;
+            columns[2] = "ZDB-EXP-" + i;
+            columns[3] = "ZDB-PUB-" + i;
+            columns[4] = this.createZfaID(size);
+            columns[5] = (this.random.nextBoolean()) ? this.createZfaID(size) : "";
+            columns[6] = (this.random.nextInt(3) == 0) ? "PATO:0000001" : this.createID("PATO");
+            columns[7] = ZFIN_QUALITIES[this.random.nextInt(ZFIN_QUALITIES.length)];
+            columns[8] = (this.random.nextInt(4) == 0) ? this.createZfaID(size) : "";
+            columns[9] = ((columns[8].length() > 0) && this.random.nextBoolean()) ? this.createZfaID(size) : "";
+            final StringBuffer line = new StringBuffer(columns[0]);
+            for (int column = 1; column < columns.length; column++) {
+                line.append('\t').append(columns[column]);
+            }
+            rows.add(line.toString());
+        }
+        return rows;
+    }
+
+    /**
+     * Create EndNote XML records with a handful of authors, a styled title and an abstract.
+     */
+    public List<Element> createEndNoteRecords(int size) {
+        final List<Element> records = new ArrayList<Element>();
+        for (int i = 0; i < size; i++) {
+            final Element record = new Element("record");
+            record.addContent(new Element("rec-number").setText(String.valueOf(i)));
+            record.addContent(new Element("accession-num").setText("PUB:" + i));
+            record.addContent(new Element("dates").addContent(new Element("year").setText(String.valueOf(1950 + this.random.nextInt(60)))));
+            final Element authors = new Element("authors");
+            final int authorCount = 1 + this.random.nextInt(5);
+            for (int j = 0; j < authorCount; j++) {
+                authors.addContent(new Element("author").setText("Surname" + this.random.nextInt(1000) + ", F. M."));
+            }
+            record.addContent(new Element("contributors").addContent(authors));
+            final Element title = new Element("title");
+            title.addContent(new Element("style").setAttribute("face", "normal").setText("The osteology of "));
+            title.addContent(new Element("style").setAttribute("face", "italic").setText("Genus species" + i));
+            final Element titles = new Element("titles").addContent(title);
+            titles.addContent(new Element("secondary-title").setText("Journal of Synthetic Morphology"));
+            record.addContent(titles);
+            record.addContent(new Element("volume").setText(String.valueOf(this.random.nextInt(100))));
+            record.addContent(new Element("pages").setText("1-" + this.random.nextInt(500)));
+            record.addContent(new Element("abstract").addContent(new Element("style").setAttribute("face", "normal").setText("Abstract text for record " + i)));
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Create an EndNote XML export file containing the records from createEndNoteRecords.
+     */
+    public byte[] createEndNoteXML(int size) throws IOException {
+        final Element records = new Element("records");
+        for (Element record : this.createEndNoteRecords(size)) {
+            records.addContent(record);
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new XMLOutputter(Format.getPrettyFormat()).output(new Document(new Element("xml").addContent(records)), output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Create lines of the ZFIN GO annotations file, a small fraction of them with an unknown aspect.
+     */
+    public List<String> createGOAnnotationLines(int size) {
+        final List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            final String aspect = (this.random.nextInt(20) == 0) ? "X" : GO_ASPECTS[this.random.nextInt(GO_ASPECTS.length)];
+            lines.add("ZFIN\tZDB-GENE-" + i + "\tgene" + i + "\t\t" + this.createID("GO") + "\tZDB-PUB-" + i + "\tIEA\t\t" + aspect + "\t\t\tgene\ttaxon:7955\t20100101\tZFIN\t\t");
+        }
+        return lines;
+    }
+
+    /**
+     * Create an OBO file of TAO terms using the features the loaders read: namespaces, subsets, synonyms, alternate
+     * IDs, dbxrefs, obsolete terms, genus-differentia definitions and links to terms outside the file.
+     */
+    public String createOBOFile(int size) {
+        final StringBuffer obo = new StringBuffer();
+        obo.append("format-version: 1.2\n");
+        obo.append("default-namespace: teleost_anatomy\n");
+        obo.append("subsetdef: phenoscape_slim \"Phenoscape slim\"\n");
+        obo.append("synonymtypedef: PLURAL \"plural\" EXACT\n\n");
+        for (int i = 0; i < size; i++) {
+            obo.append("[Term]\n");
+            obo.append(String.format("id: TAO:%07d\n", i));
+            obo.append("name: structure " + i + "\n");
+            if (i % 7 == 0) {
+                obo.append("namespace: teleost_taxonomy\n");
+            }
+            obo.append("def: \"Definition of structure " + i + ".\" [TAO:curator]\n");
+            if (i % 10 == 0) {
+                obo.append(String.format("alt_id: TAO:%07d\n", size + i));
+            }
+            if (i % 3 == 0) {
+                obo.append("subset: phenoscape_slim\n");
+            }
+            obo.append("synonym: \"structures " + i + "\" EXACT PLURAL []\n");
+            obo.append(String.format("xref: ZFA:%07d\n", i));
+            if (i == 0) {
+                obo.append("\n");
+                continue;
+            }
+            if (i % 50 == 0) {
+                obo.append("is_obsolete: true\n");
+                obo.append(String.format("replaced_by: TAO:%07d\n", i - 1));
+            } else if (i % 5 == 0) {
+                obo.append(String.format("intersection_of: TAO:%07d\n", this.random.nextInt(i)));
+                obo.append(String.format("intersection_of: part_of TAO:%07d\n", this.random.nextInt(i)));
+            } else {
+                obo.append(String.format("is_a: TAO:%07d\n", this.random.nextInt(i)));
+                if (this.random.nextInt(4) == 0) {
+                    obo.append(String.format("relationship: part_of %s\n", (i % 20 == 1) ? this.createID("UBERON") : String.format("TAO:%07d", this.random.nextInt(i))));
+                }
+            }
+            obo.append("\n");
+        }
+        obo.append("[Typedef]\n");
+        obo.append("id: part_of\n");
+        obo.append("name: part of\n");
+        obo.append("is_transitive: true\n");
+        obo.append("xref: OBO_REL:part_of\n");
+        return obo.toString();
+    }
+
+    private OBOClass createClass(boolean postComposed) {
+        if (!postComposed) {
+            return new OBOClassImpl(this.createID("TAO"));
+        }
+        final OBOClass genus = new OBOClassImpl(this.createID("TAO"));
+        final OBOClass differentia = new OBOClassImpl(this.createID("TAO"));
+        final OBOClass postComposition = new OBOClassImpl(genus.getID() + "^" + this.partOf.getID() + "(" + differentia.getID() + ")");
+        final OBORestrictionImpl genusLink = new OBORestrictionImpl(postComposition, OBOProperty.IS_A, genus);
+        genusLink.setCompletes(true);
+        postComposition.addParent(genusLink);
+        final OBORestrictionImpl differentiaLink = new OBORestrictionImpl(postComposition, this.partOf, differentia);
+        differentiaLink.setCompletes(true);
+        postComposition.addParent(differentiaLink);
+        return postComposition;
+    }
+
+    private String createID(String prefix) {
+        return String.format("%s:%07d", prefix, this.random.nextInt(10000000));
+    }
+
+    private String createZfaID(int size) {
+        return String.format("ZFA:%07d", this.random.nextInt(size));
+    }
+
+}
@@ -0,0 +1,27 @@
+package org.phenoscape.obd.loader;
+
+import org.phenoscape.model.DataSet;
+
+/**
+ * Times OBDModelBridge.translate(DataSet) on a synthetic character matrix.
+ */
+public class TranslateDataSetBenchmark extends Benchmark {
+
+    private DataSet dataset;
+
+    @Override
+    public String getName() {
+        return "OBDModelBridge.translate";
+    }
+
+    @Override
+    public void setUp(int size) {
+        this.dataset = new SyntheticData().createDataSet(size);
+    }
+
+    @Override
+    public int run() throws Exception {
+        return new OBDModelBridge().translate(this.dataset).getStatements().size();
+    }
+
+}
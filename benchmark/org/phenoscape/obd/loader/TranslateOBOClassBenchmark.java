@@ -0,0 +1,44 @@
+package org.phenoscape.obd.loader;
+
+import java.util.List;
+
+import org.obo.datamodel.OBOClass;
+
+/**
+ * Times OBDUtil.translateOBOClass on a mix of atomic and post-composed classes. Unless the benchmark
+ * is for cached translations, the translation cache is cleared before each run, so that the
+ * translation itself is measured rather than cache lookups.
+ */
+public class TranslateOBOClassBenchmark extends Benchmark {
+
+    private final boolean cached;
+    private List<OBOClass> classes;
+
+    public TranslateOBOClassBenchmark(boolean cached) {
+        this.cached = cached;
+    }
+
+    @Override
+    public String getName() {
+        return this.cached ? "OBDUtil.translateOBOClass (cached)" : "OBDUtil.translateOBOClass";
+    }
+
+    @Override
+    public void setUp(int size) {
+        this.classes = new SyntheticData().createClasses(size);
+        OBDUtil.clearClassCache();
+    }
+
+    @Override
+    public int run() {
+        if (!this.cached) {
+            OBDUtil.clearClassCache();
+        }
+        int arguments = 0;
+        for (OBOClass oboClass : this.classes) {
+            arguments += OBDUtil.translateOBOClass(oboClass).getArguments().size();
+        }
+        return arguments;
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.phenoscape.obd.loader;
+
+import java.util.List;
+
+import org.jdom.Element;
+
+/**
+ * Times OBDPublicationBridge.translateRecord on synthetic EndNote records.
+ */
+public class TranslatePublicationRecordBenchmark extends Benchmark {
+
+    private List<Element> records;
+
+    @Override
+    public String getName() {
+        return "OBDPublicationBridge.translateRecord";
+    }
+
+    @Override
+    public void setUp(int size) {
+        this.records = new SyntheticData().createEndNoteRecords(size);
+    }
+
+    @Override
+    public int run() throws Exception {
+        final OBDPublicationBridge bridge = new OBDPublicationBridge();
+        int statements = 0;
+        for (Element record : this.records) {
+            statements += bridge.translateRecord(record).getStatements().size();
+        }
+        return statements;
+    }
+
+}
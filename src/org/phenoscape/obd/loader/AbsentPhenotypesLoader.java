@@ -1,22 +1,14 @@
 package org.phenoscape.obd.loader;
 
-import java.io.File;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.bbop.dataadapter.DataAdapterException;
 import org.obd.model.CompositionalDescription;
 import org.obd.model.CompositionalDescription.Predicate;
 import org.obd.model.Graph;
 import org.obd.query.Shard;
 import org.obd.query.impl.OBDSQLShard;
-import org.obo.dataadapter.OBOAdapter;
-import org.obo.dataadapter.OBOFileAdapter;
-import org.obo.datamodel.IdentifiedObject;
 import org.obo.datamodel.OBOClass;
-import org.obo.datamodel.OBOSession;
 import org.purl.obo.vocab.RelationVocabulary;
 
 public class AbsentPhenotypesLoader {
@@ -33,11 +25,13 @@ public class AbsentPhenotypesLoader {
     public static final String ONTOLOGY_DIR = "ontology-dir";
 
     private Shard shard;
-    private OBOSession session;
+    private GraphWriter writer;
+    private OntologyIndex index;
 
     public AbsentPhenotypesLoader() throws SQLException, ClassNotFoundException {
         this.shard = this.initializeShard();
-        this.session = this.loadOBOSession();
+        this.writer = GraphWriterFactory.createGraphWriter(this.shard);
+        this.index = OntologyLoader.getIndex();
     }
 
     public static void main(String[] args) throws SQLException, ClassNotFoundException {
@@ -45,23 +39,23 @@ public class AbsentPhenotypesLoader {
         loader.loadAbsentPhenotypes();
     }
 
-    public void loadAbsentPhenotypes() {
-        final Graph graph = new Graph();
-        final OBOClass absent = (OBOClass)(this.session.getObject(Vocab.PATO_ABSENT));
-        for (IdentifiedObject io : this.session.getObjects()) {
-            if (io instanceof OBOClass) {
-                final OBOClass term = (OBOClass)io;
-                if ((term.getNamespace() != null) && (term.getNamespace().getID().equals("teleost_anatomy"))) {
-                    final CompositionalDescription phenotype = this.createPhenotype(term, absent);
-                    log().info("Adding phenotype: " + phenotype);
-                    graph.addStatements(phenotype);
-                }
+    public void loadAbsentPhenotypes() throws SQLException {
+        try {
+            final Graph graph = new Graph();
+            final OBOClass absent = (OBOClass)(this.index.getSession().getObject(Vocab.PATO_ABSENT));
+            for (OBOClass term : this.index.getClassesInNamespace("teleost_anatomy")) {
+                final CompositionalDescription phenotype = this.createPhenotype(term, absent);
+                log().info("Adding phenotype: " + phenotype);
+                graph.addStatements(phenotype);
             }
+            this.writer.putGraph(graph);
+        } finally {
+            this.shard.disconnect();
         }
-        this.shard.putGraph(graph);
     }
 
     private CompositionalDescription createPhenotype(OBOClass entity, OBOClass quality) {
+        LoadMetrics.count("phenotypes.generated");
         final CompositionalDescription phenotypeNode = new CompositionalDescription(Predicate.INTERSECTION);
         phenotypeNode.addArgument(OBDUtil.translateOBOClass(quality));
         // check to avoid a NullPointerException
@@ -72,33 +66,8 @@ public class AbsentPhenotypesLoader {
         return phenotypeNode;
     }
 
-    private OBOSession loadOBOSession() {
-        final OBOFileAdapter fileAdapter = new OBOFileAdapter();
-        OBOFileAdapter.OBOAdapterConfiguration config = new OBOFileAdapter.OBOAdapterConfiguration();
-        config.setReadPaths(this.getOntologyPaths());
-        config.setBasicSave(false);
-        config.setAllowDangling(true);
-        config.setFollowImports(false);
-        try {
-            return fileAdapter.doOperation(OBOAdapter.READ_ONTOLOGY, config, null);
-        } catch (DataAdapterException e) {
-            log().fatal("Failed to load ontologies", e);
-            return null;
-        }
-    }
-
-    private List<String> getOntologyPaths() {
-        List<String> paths = new ArrayList<String>();
-        File ontCache = new File(System.getProperty(ONTOLOGY_DIR));
-        for (File f : ontCache.listFiles()) {
-            paths.add(f.getAbsolutePath());
-        }
-        return paths;
-    }
-
     private Shard initializeShard() throws SQLException, ClassNotFoundException {
-        OBDSQLShard obdsql = new OBDSQLShard();
-        obdsql.connect("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        final OBDSQLShard obdsql = ConnectionPool.createShard();
         return obdsql;
     }
 
@@ -25,39 +25,45 @@ public class AnatomyXrefModifier {
     public static final String DB_PASSWORD = "db-password";
 
     private Shard shard;
+    private GraphWriter writer;
 
     public AnatomyXrefModifier() throws SQLException, ClassNotFoundException {
         this.shard = this.initializeShard();
+        this.writer = GraphWriterFactory.createGraphWriter(this.shard);
     }
 
-    public void modifyXrefs() {
-        log().debug("Starting");
-        final Graph graph = new Graph();
-        final Collection<Node> zfaTerms = this.shard.getNodesBySource("zebrafish_anatomy");
-        for (Node term : zfaTerms) {
-            log().debug("Term: " + term);
-            final Collection<Statement> xrefLinks = this.shard.getStatementsByNode(term.getId());
-            String anatomyXrefID = null;
-            String taoID = null;
-            for (Statement link : xrefLinks) {
-                if (link.getRelationId().equals(Vocab.HAS_DBXREF)) {
-                    final String targetID = link.getTargetId();
-                    final String targetSource = this.shard.getNode(targetID).getSourceId();
-                    if (ObjectUtils.equals(targetSource, "teleost_anatomy")) {
-                        log().debug("Found TAO term: " + targetID);
-                        taoID = targetID;
-                    } else if (targetID.startsWith("ZFIN:ZDB-ANAT")) {
-                        log().debug("Found anatomy xref: " + targetID);
-                        anatomyXrefID = targetID;
+    public void modifyXrefs() throws SQLException {
+        try {
+            log().debug("Starting");
+            final Graph graph = new Graph();
+            final Collection<Node> zfaTerms = this.shard.getNodesBySource("zebrafish_anatomy");
+            for (Node term : zfaTerms) {
+                log().debug("Term: " + term);
+                final Collection<Statement> xrefLinks = this.shard.getStatementsByNode(term.getId());
+                String anatomyXrefID = null;
+                String taoID = null;
+                for (Statement link : xrefLinks) {
+                    if (link.getRelationId().equals(Vocab.HAS_DBXREF)) {
+                        final String targetID = link.getTargetId();
+                        final String targetSource = this.shard.getNode(targetID).getSourceId();
+                        if (ObjectUtils.equals(targetSource, "teleost_anatomy")) {
+                            log().debug("Found TAO term: " + targetID);
+                            taoID = targetID;
+                        } else if (targetID.startsWith("ZFIN:ZDB-ANAT")) {
+                            log().debug("Found anatomy xref: " + targetID);
+                            anatomyXrefID = targetID;
+                        }
                     }
                 }
+                if ((anatomyXrefID != null) && (taoID != null)) {
+                    log().debug("Linking: " + taoID + ", " + anatomyXrefID);
+                    graph.addStatement(new LinkStatement(taoID, Vocab.HAS_DBXREF, anatomyXrefID));
+                }
             }
-            if ((anatomyXrefID != null) && (taoID != null)) {
-                log().debug("Linking: " + taoID + ", " + anatomyXrefID);
-                graph.addStatement(new LinkStatement(taoID, Vocab.HAS_DBXREF, anatomyXrefID));
-            }
+            this.writer.putGraph(graph);
+        } finally {
+            this.shard.disconnect();
         }
-        this.shard.putGraph(graph);
     }
 
     public static void main(String[] args) throws SQLException, ClassNotFoundException {
@@ -67,8 +73,7 @@ public class AnatomyXrefModifier {
     }
 
     private Shard initializeShard() throws SQLException, ClassNotFoundException {
-        final OBDSQLShard obdsql = new OBDSQLShard();
-        obdsql.connect("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        final OBDSQLShard obdsql = ConnectionPool.createShard();
         return obdsql;
     }
 
@@ -1,23 +1,21 @@
 package org.phenoscape.obd.loader;
 
-import java.io.File;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.log4j.Logger;
-import org.bbop.dataadapter.DataAdapterException;
 import org.obd.model.CompositionalDescription;
 import org.obd.model.Graph;
 import org.obd.model.CompositionalDescription.Predicate;
 import org.obd.query.Shard;
 import org.obd.query.impl.OBDSQLShard;
-import org.obo.dataadapter.OBOAdapter;
-import org.obo.dataadapter.OBOFileAdapter;
-import org.obo.datamodel.IdentifiedObject;
 import org.obo.datamodel.OBOClass;
-import org.obo.datamodel.OBOSession;
-import org.obo.datamodel.TermSubset;
 import org.purl.obo.vocab.RelationVocabulary;
 
 public class AttributePhenotypesLoader {
@@ -32,38 +30,97 @@ public class AttributePhenotypesLoader {
     public static final String DB_PASSWORD = "db-password";
     /** The ontology-dir system property should contain the path to a folder with ontologies to be loaded. */
     public static final String ONTOLOGY_DIR = "ontology-dir";
+    /** The attribute-phenotype-threads system property may contain the number of threads generating phenotypes. If unset, phenotypes are generated on the loading thread and stored in a single graph. */
+    public static final String THREADS = "attribute-phenotype-threads";
+    /** The attribute-phenotype-chunk-size system property may contain the number of phenotypes stored in each graph when generating phenotypes in parallel. */
+    public static final String CHUNK_SIZE = "attribute-phenotype-chunk-size";
+    private static final int DEFAULT_CHUNK_SIZE = 10000;
+    private static final String ANATOMY_NAMESPACE = "teleost_anatomy";
+    private static final String ATTRIBUTE_SUBSET = "character_slim";
 
     private Shard shard;
-    private OBOSession session;
+    private GraphWriter writer;
+    private OntologyIndex index;
 
     public AttributePhenotypesLoader() throws SQLException, ClassNotFoundException {
         this.shard = this.initializeShard();
-        this.session = this.loadOBOSession();
+        this.writer = GraphWriterFactory.createGraphWriter(this.shard);
+        this.index = OntologyLoader.getIndex();
     }
 
-    public static void main(String[] args) throws SQLException, ClassNotFoundException {
+    public static void main(String[] args) throws SQLException, ClassNotFoundException, InterruptedException {
         final AttributePhenotypesLoader loader = new AttributePhenotypesLoader();
         loader.loadAttributePhenotypes();
     }
     
-    public void loadAttributePhenotypes() {
-        final Graph graph = new Graph();
-        for (OBOClass attribute : this.findAttributes()) {
-            for (IdentifiedObject io : this.session.getObjects()) {
-                if (io instanceof OBOClass) {
-                    final OBOClass term = (OBOClass)io;
-                    if ((term.getNamespace() != null) && (term.getNamespace().getID().equals("teleost_anatomy"))) {
+    public void loadAttributePhenotypes() throws InterruptedException, SQLException {
+        try {
+            final List<OBOClass> attributes = this.index.getClassesInSubset(ATTRIBUTE_SUBSET);
+            final List<OBOClass> entities = this.index.getClassesInNamespace(ANATOMY_NAMESPACE);
+            log().info("Generating phenotypes for " + attributes.size() + " attributes and " + entities.size() + " entities");
+            final int threads = Integer.getInteger(THREADS, 0);
+            if (threads > 0) {
+                final int chunkSize = Integer.getInteger(CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+                if (chunkSize <= 0) {
+                    throw new IllegalArgumentException("The " + CHUNK_SIZE + " property must be a positive number of phenotypes: " + chunkSize);
+                }
+                this.loadAttributePhenotypesInParallel(attributes, entities, threads, chunkSize);
+            } else {
+                final Graph graph = new Graph();
+                for (OBOClass attribute : attributes) {
+                    for (OBOClass term : entities) {
                         final CompositionalDescription phenotype = this.createPhenotype(term, attribute);
-                        log().info("Adding phenotype: " + phenotype);
+                        log().debug("Adding phenotype: " + phenotype);
                         graph.addStatements(phenotype);
                     }
                 }
+                this.writer.putGraph(graph);
             }
+        } finally {
+            this.shard.disconnect();
+        }
+    }
+
+    /**
+     * Split the attribute by entity cross product into chunks generated by a pool of threads. Chunks are 
+     * stored by the calling thread as they complete, with only a few more chunks in progress than there 
+     * are threads, so memory use does not grow with the size of the cross product.
+     */
+    private void loadAttributePhenotypesInParallel(List<OBOClass> attributes, List<OBOClass> entities, int threads, int chunkSize) throws InterruptedException, SQLException {
+        final long total = (long)attributes.size() * entities.size();
+        final int chunks = (int)((total + chunkSize - 1) / chunkSize);
+        final int maxPending = threads * 2;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CompletionService<Graph> completion = new ExecutorCompletionService<Graph>(executor);
+        try {
+            int submitted = 0;
+            int stored = 0;
+            while (stored < chunks) {
+                while ((submitted < chunks) && ((submitted - stored) < maxPending)) {
+                    final long start = (long)submitted * chunkSize;
+                    completion.submit(new CrossProductChunk(attributes, entities, start, Math.min(start + chunkSize, total)));
+                    submitted++;
+                }
+                final Graph graph;
+                try {
+                    graph = completion.take().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException)e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+                this.writer.putGraph(graph);
+                stored++;
+                log().info("Stored chunk " + stored + " of " + chunks);
+            }
+        } finally {
+            executor.shutdownNow();
         }
-        this.shard.putGraph(graph);
     }
     
     private CompositionalDescription createPhenotype(OBOClass entity, OBOClass attribute) {
+        LoadMetrics.count("phenotypes.generated");
         final CompositionalDescription phenotypeNode = new CompositionalDescription(Predicate.INTERSECTION);
         phenotypeNode.addArgument(OBDUtil.translateOBOClass(attribute));
         // check to avoid a NullPointerException
@@ -74,53 +131,42 @@ public class AttributePhenotypesLoader {
         return phenotypeNode;
     }
     
-    private List<OBOClass> findAttributes() {
-        final List<OBOClass> attributes = new ArrayList<OBOClass>();
-        for (IdentifiedObject io : this.session.getObjects()) {
-            if (io instanceof OBOClass) {
-                final OBOClass potentialAttribute = (OBOClass)io;
-                for (TermSubset subset : potentialAttribute.getSubsets()) {
-                    if (subset.getName().equals("character_slim")) {
-                        attributes.add(potentialAttribute);
-                    }
-                }
-            }
-        }
-        return attributes;
+    private Shard initializeShard() throws SQLException, ClassNotFoundException {
+        final OBDSQLShard obdsql = ConnectionPool.createShard();
+        return obdsql;
     }
 
-    private OBOSession loadOBOSession() {
-        final OBOFileAdapter fileAdapter = new OBOFileAdapter();
-        OBOFileAdapter.OBOAdapterConfiguration config = new OBOFileAdapter.OBOAdapterConfiguration();
-        config.setReadPaths(this.getOntologyPaths());
-        config.setBasicSave(false);
-        config.setAllowDangling(true);
-        config.setFollowImports(false);
-        try {
-            return fileAdapter.doOperation(OBOAdapter.READ_ONTOLOGY, config, null);
-        } catch (DataAdapterException e) {
-            log().fatal("Failed to load ontologies", e);
-            return null;
-        }
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
     }
 
-    private List<String> getOntologyPaths() {
-        List<String> paths = new ArrayList<String>();
-        File ontCache = new File(System.getProperty(ONTOLOGY_DIR));
-        for (File f : ontCache.listFiles()) {
-            paths.add(f.getAbsolutePath());
+    /**
+     * Generates the phenotypes for a range of positions in the attribute by entity cross product, ordered by attribute.
+     */
+    private class CrossProductChunk implements Callable<Graph> {
+
+        private final List<OBOClass> attributes;
+        private final List<OBOClass> entities;
+        private final long start;
+        private final long end;
+
+        public CrossProductChunk(List<OBOClass> attributes, List<OBOClass> entities, long start, long end) {
+            this.attributes = attributes;
+            this.entities = entities;
+            this.start = start;
+            this.end = end;
         }
-        return paths;
-    }
 
-    private Shard initializeShard() throws SQLException, ClassNotFoundException {
-        OBDSQLShard obdsql = new OBDSQLShard();
-        obdsql.connect("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
-        return obdsql;
-    }
+        public Graph call() {
+            final Graph graph = new Graph();
+            for (long i = this.start; i < this.end; i++) {
+                final OBOClass attribute = this.attributes.get((int)(i / this.entities.size()));
+                final OBOClass entity = this.entities.get((int)(i % this.entities.size()));
+                graph.addStatements(createPhenotype(entity, attribute));
+            }
+            return graph;
+        }
 
-    private Logger log() {
-        return Logger.getLogger(this.getClass());
     }
 
 }
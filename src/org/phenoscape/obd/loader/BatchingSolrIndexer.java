@@ -0,0 +1,101 @@
+package org.phenoscape.obd.loader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Collects Solr documents and sends them to the server in batches, rather than making one
+ * HTTP request per document. Callers must call commit() when finished so that the final
+ * partial batch is sent.
+ */
+public class BatchingSolrIndexer {
+
+    /** The solr-batch-size system property may contain the number of documents sent to Solr in each request. */
+    public static final String SOLR_BATCH_SIZE = "solr-batch-size";
+    /** The solr-commit-interval system property may contain the number of documents to send between commits. If unset, documents are only committed when the loader finishes. */
+    public static final String SOLR_COMMIT_INTERVAL = "solr-commit-interval";
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final SolrServer solr;
+    private final int batchSize;
+    private final int commitInterval;
+    private final List<SolrInputDocument> batch;
+    private int uncommitted = 0;
+    private int sent = 0;
+
+    /**
+     * Create an indexer using the batch size and commit interval given by system properties.
+     */
+    public BatchingSolrIndexer(SolrServer solr) {
+        this(solr, Integer.getInteger(SOLR_BATCH_SIZE, DEFAULT_BATCH_SIZE), Integer.getInteger(SOLR_COMMIT_INTERVAL, 0));
+    }
+
+    /**
+     * @param solr the server receiving documents
+     * @param batchSize the number of documents to send in each request
+     * @param commitInterval the number of documents to send between commits, or 0 to commit only when commit() is called
+     */
+    public BatchingSolrIndexer(SolrServer solr, int batchSize, int commitInterval) {
+        this.solr = solr;
+        this.batchSize = Math.max(1, batchSize);
+        this.commitInterval = commitInterval;
+        this.batch = new ArrayList<SolrInputDocument>(this.batchSize);
+    }
+
+    public synchronized void add(SolrInputDocument doc) throws SolrServerException, IOException {
+        this.batch.add(doc);
+        if (this.batch.size() >= this.batchSize) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Send any buffered documents to the server without committing, unless the commit interval has been reached.
+     */
+    public synchronized void flush() throws SolrServerException, IOException {
+        if (this.batch.isEmpty()) {
+            return;
+        }
+        final LoadMetrics.Timer timer = LoadMetrics.start("solr.add");
+        this.solr.add(this.batch);
+        timer.stop();
+        LoadMetrics.count("solr.documents", this.batch.size());
+        this.sent += this.batch.size();
+        this.uncommitted += this.batch.size();
+        log().debug("Sent " + this.sent + " documents");
+        this.batch.clear();
+        if ((this.commitInterval > 0) && (this.uncommitted >= this.commitInterval)) {
+            this.commitToServer();
+        }
+    }
+
+    /**
+     * Send any buffered documents and commit.
+     */
+    public synchronized void commit() throws SolrServerException, IOException {
+        this.flush();
+        this.commitToServer();
+    }
+
+    private void commitToServer() throws SolrServerException, IOException {
+        final LoadMetrics.Timer timer = LoadMetrics.start("solr.commit");
+        this.solr.commit();
+        timer.stop();
+        this.uncommitted = 0;
+    }
+
+    public synchronized int getDocumentsSent() {
+        return this.sent;
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
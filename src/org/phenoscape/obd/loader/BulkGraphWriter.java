@@ -0,0 +1,258 @@
+package org.phenoscape.obd.loader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.obd.model.Graph;
+import org.obd.model.LinkStatement;
+import org.obd.model.LiteralStatement;
+import org.obd.model.Node;
+import org.obd.model.NodeAlias;
+import org.obd.query.impl.AbstractSQLShard;
+
+/**
+ * Stores graphs by staging their nodes and statements in temporary tables with batched inserts, and then
+ * applying each table with a single set-based call of the OBD storage functions (store_node, store_link,
+ * store_tagval, store_annotation and friends), resolving node IDs within the database. The functions and
+ * their arguments are the same as used by OBDSQLShard.putGraph, which calls them once per node or statement,
+ * so the stored rows are the same but without a database round trip for every row. Each graph is stored in
+ * a single transaction. Node aliases and literals with non-text values are passed to the shard as usual.
+ */
+public class BulkGraphWriter implements GraphWriter {
+
+    private static final int BATCH_SIZE = 5000;
+    private static final String[][] TABLES = {
+        {"bulk_node", "seq INTEGER, uid TEXT, label TEXT, source TEXT"},
+        {"bulk_link", "seq INTEGER, uid TEXT, predicate TEXT, object TEXT, combinator TEXT, source TEXT"},
+        {"bulk_tagval", "seq INTEGER, uid TEXT, predicate TEXT, value TEXT, source TEXT"},
+        {"bulk_annotation", "seq INTEGER, uid TEXT, predicate TEXT, object TEXT, source TEXT, negated BOOLEAN, annotation_id INTEGER"},
+        {"bulk_annotation_link", "annotation_seq INTEGER, seq INTEGER, predicate TEXT, object TEXT, combinator TEXT, source TEXT"},
+        {"bulk_annotation_tagval", "annotation_seq INTEGER, seq INTEGER, predicate TEXT, value TEXT, datatype TEXT, source TEXT"}
+    };
+    private static final String[] APPLY = {
+        "SELECT count(store_node(uid, label, source, 'I')) FROM (SELECT * FROM bulk_node ORDER BY seq) AS staged",
+        "SELECT count(store_link(uid, predicate, object, combinator, false, source)) FROM (SELECT * FROM bulk_link ORDER BY seq) AS staged",
+        "SELECT count(store_tagval(uid, predicate, value, source)) FROM (SELECT * FROM bulk_tagval ORDER BY seq) AS staged",
+        "UPDATE bulk_annotation SET annotation_id = store_annotation(uid, predicate, object, source, negated)",
+        "ANALYZE bulk_annotation",
+        "SELECT count(store_link_si(annotation_id, predicate, object, combinator, false, source)) FROM (SELECT bulk_annotation_link.*, bulk_annotation.annotation_id FROM bulk_annotation_link JOIN bulk_annotation ON (bulk_annotation.seq = bulk_annotation_link.annotation_seq) ORDER BY bulk_annotation_link.seq) AS staged",
+        "SELECT count(store_tagval_i(annotation_id, predicate, value, datatype, source)) FROM (SELECT bulk_annotation_tagval.*, bulk_annotation.annotation_id FROM bulk_annotation_tagval JOIN bulk_annotation ON (bulk_annotation.seq = bulk_annotation_tagval.annotation_seq) ORDER BY bulk_annotation_tagval.seq) AS staged"
+    };
+
+    private final AbstractSQLShard shard;
+    private final Connection connection;
+    private StagingTable nodes;
+    private StagingTable links;
+    private StagingTable tagvals;
+    private StagingTable annotations;
+    private StagingTable annotationLinks;
+    private StagingTable annotationTagvals;
+    private final List<org.obd.model.Statement> residualStatements = new ArrayList<org.obd.model.Statement>();
+    private int sequence = 0;
+
+    public BulkGraphWriter(AbstractSQLShard shard) {
+        this.shard = shard;
+        this.connection = shard.getConnection();
+    }
+
+    public void putGraph(Graph graph) throws SQLException {
+        if (this.nodes == null) {
+            this.createStagingTables();
+        }
+        final LoadMetrics.Timer timer = LoadMetrics.start("db.write");
+        final boolean autoCommit = this.connection.getAutoCommit();
+        this.connection.setAutoCommit(false);
+        try {
+            this.clearStagingTables();
+            final LoadMetrics.Timer stageTimer = LoadMetrics.start("db.stage");
+            this.stageGraph(graph);
+            stageTimer.stop();
+            final LoadMetrics.Timer applyTimer = LoadMetrics.start("db.apply");
+            this.applyStagingTables();
+            applyTimer.stop();
+            this.connection.commit();
+        } catch (SQLException e) {
+            this.connection.rollback();
+            for (StagingTable table : this.getStagingTables()) {
+                table.clear();
+            }
+            this.residualStatements.clear();
+            throw e;
+        } finally {
+            this.connection.setAutoCommit(autoCommit);
+        }
+        log().debug("Stored " + this.sequence + " staged rows; passing " + this.residualStatements.size() + " statements to shard");
+        for (org.obd.model.Statement statement : this.residualStatements) {
+            this.shard.putStatement(statement);
+        }
+        this.residualStatements.clear();
+        timer.stop();
+        LoadMetrics.count("db.statements", graph.getStatements().size());
+    }
+
+    private void createStagingTables() throws SQLException {
+        final Statement statement = this.connection.createStatement();
+        for (String[] table : TABLES) {
+            // a pooled connection may still have the tables of an earlier writer
+            statement.executeUpdate("DROP TABLE IF EXISTS " + table[0]);
+            statement.executeUpdate("CREATE TEMPORARY TABLE " + table[0] + " (" + table[1] + ")");
+        }
+        statement.close();
+        this.nodes = new StagingTable("INSERT INTO bulk_node (seq, uid, label, source) VALUES (?, ?, ?, ?)");
+        this.links = new StagingTable("INSERT INTO bulk_link (seq, uid, predicate, object, combinator, source) VALUES (?, ?, ?, ?, ?, ?)");
+        this.tagvals = new StagingTable("INSERT INTO bulk_tagval (seq, uid, predicate, value, source) VALUES (?, ?, ?, ?, ?)");
+        this.annotations = new StagingTable("INSERT INTO bulk_annotation (seq, uid, predicate, object, source, negated) VALUES (?, ?, ?, ?, ?, ?)");
+        this.annotationLinks = new StagingTable("INSERT INTO bulk_annotation_link (annotation_seq, seq, predicate, object, combinator, source) VALUES (?, ?, ?, ?, ?, ?)");
+        this.annotationTagvals = new StagingTable("INSERT INTO bulk_annotation_tagval (annotation_seq, seq, predicate, value, datatype, source) VALUES (?, ?, ?, ?, ?, ?)");
+    }
+
+    private void clearStagingTables() throws SQLException {
+        final Statement statement = this.connection.createStatement();
+        statement.executeUpdate("TRUNCATE bulk_node, bulk_link, bulk_tagval, bulk_annotation, bulk_annotation_link, bulk_annotation_tagval");
+        statement.close();
+        this.sequence = 0;
+    }
+
+    /**
+     * Add rows for the graph in the same order as putGraph would store them: each node followed by its own
+     * statements, and then the graph statements.
+     */
+    private void stageGraph(Graph graph) throws SQLException {
+        for (Node node : graph.getNodes()) {
+            this.nodes.add(this.sequence++, node.getId(), node.getLabel(), node.getSourceId());
+            for (org.obd.model.Statement statement : node.getStatements()) {
+                this.stageStatement(statement);
+            }
+        }
+        for (org.obd.model.Statement statement : graph.getStatements()) {
+            this.stageStatement(statement);
+        }
+        for (StagingTable table : this.getStagingTables()) {
+            table.flush();
+        }
+    }
+
+    private void stageStatement(org.obd.model.Statement statement) throws SQLException {
+        final String source = (statement.getSourceId() != null) ? statement.getSourceId() : "";
+        final String combinator = statement.isIntersectionSemantics() ? "I" : (statement.isUnionSemantics() ? "U" : "");
+        if (statement instanceof LinkStatement) {
+            if (statement.getSubStatements().size() > 0) {
+                if (!this.canStageSubStatements(statement)) {
+                    this.residualStatements.add(statement);
+                    return;
+                }
+                final int annotationSeq = this.sequence++;
+                this.annotations.add(annotationSeq, statement.getNodeId(), statement.getRelationId(), statement.getTargetId(), source, statement.isNegated());
+                for (org.obd.model.Statement subStatement : statement.getSubStatements()) {
+                    if (subStatement instanceof LiteralStatement) {
+                        final LiteralStatement literal = (LiteralStatement)subStatement;
+                        final String datatype = (literal.getDatatype() != null) ? literal.getDatatype() : "xsd:string";
+                        this.annotationTagvals.add(annotationSeq, this.sequence++, subStatement.getRelationId(), literal.getValue(), datatype, source);
+                    } else {
+                        this.annotationLinks.add(annotationSeq, this.sequence++, subStatement.getRelationId(), subStatement.getTargetId(), combinator, source);
+                    }
+                }
+            } else {
+                this.links.add(this.sequence++, statement.getNodeId(), statement.getRelationId(), statement.getTargetId(), combinator, source);
+            }
+        } else if (statement instanceof NodeAlias) {
+            this.residualStatements.add(statement);
+        } else if (statement instanceof LiteralStatement) {
+            final Object value = ((LiteralStatement)statement).getValue();
+            if (this.isText(value)) {
+                this.tagvals.add(this.sequence++, statement.getNodeId(), statement.getRelationId(), value, source);
+            } else {
+                this.residualStatements.add(statement);
+            }
+        }
+    }
+
+    private boolean canStageSubStatements(org.obd.model.Statement statement) {
+        for (org.obd.model.Statement subStatement : statement.getSubStatements()) {
+            if ((subStatement instanceof LiteralStatement) && !this.isText(((LiteralStatement)subStatement).getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Values which the shard would pass to the storage functions as text.
+     */
+    private boolean isText(Object value) {
+        return (value == null) || (value instanceof String);
+    }
+
+    private void applyStagingTables() throws SQLException {
+        final Statement statement = this.connection.createStatement();
+        for (String sql : APPLY) {
+            statement.execute(sql);
+        }
+        statement.close();
+    }
+
+    private List<StagingTable> getStagingTables() {
+        final List<StagingTable> tables = new ArrayList<StagingTable>();
+        tables.add(this.nodes);
+        tables.add(this.links);
+        tables.add(this.tagvals);
+        tables.add(this.annotations);
+        tables.add(this.annotationLinks);
+        tables.add(this.annotationTagvals);
+        return tables;
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+    /**
+     * Batched inserts into one staging table, binding parameters as OBDSQLShard binds storage function arguments.
+     */
+    private class StagingTable {
+
+        private final PreparedStatement insert;
+        private int pending = 0;
+
+        public StagingTable(String sql) throws SQLException {
+            this.insert = connection.prepareStatement(sql);
+        }
+
+        public void add(Object... values) throws SQLException {
+            for (int i = 0; i < values.length; i++) {
+                final Object value = values[i];
+                if (value instanceof Integer) {
+                    this.insert.setInt(i + 1, (Integer)value);
+                } else if (value instanceof Boolean) {
+                    this.insert.setBoolean(i + 1, (Boolean)value);
+                } else {
+                    this.insert.setString(i + 1, (String)value);
+                }
+            }
+            this.insert.addBatch();
+            this.pending++;
+            if (this.pending >= BATCH_SIZE) {
+                this.flush();
+            }
+        }
+
+        public void flush() throws SQLException {
+            if (this.pending > 0) {
+                this.insert.executeBatch();
+                this.pending = 0;
+            }
+        }
+
+        public void clear() throws SQLException {
+            this.insert.clearBatch();
+            this.pending = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,531 @@
+package org.phenoscape.obd.loader;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.obd.query.impl.OBDSQLShard;
+
+/**
+ * A bounded pool of database connections shared by all loaders in the JVM. Connections handed out
+ * by the pool return to it when closed. Connections which have been idle for a while are validated
+ * before reuse, and each pooled connection keeps a cache of prepared statements so that repeated
+ * queries are not re-parsed by the driver.
+ */
+public class ConnectionPool {
+
+    /** The db-host system property should contain the name of the database server. */
+    public static final String DB_HOST = "db-host";
+    /** The db-name system property should contain the name of the database. */
+    public static final String DB_NAME = "db-name";
+    /** The db-user system property should contain the database username. */
+    public static final String DB_USER = "db-user";
+    /** The db-password system property should contain the database password. */
+    public static final String DB_PASSWORD = "db-password";
+    /** The db-pool-size system property may contain the maximum number of open database connections. */
+    public static final String POOL_SIZE = "db-pool-size";
+    /** The db-pool-timeout system property may contain the number of milliseconds to wait for a free connection before failing. */
+    public static final String POOL_TIMEOUT = "db-pool-timeout";
+    /** The db-pool-validation-interval system property may contain the number of milliseconds a connection can be idle before it is validated on reuse. */
+    public static final String VALIDATION_INTERVAL = "db-pool-validation-interval";
+    /** The db-pool-statement-cache system property may contain the number of prepared statements cached for each connection. Zero disables caching. */
+    public static final String STATEMENT_CACHE_SIZE = "db-pool-statement-cache";
+    private static final String VALIDATION_QUERY = "SELECT 1";
+    private static ConnectionPool sharedPool;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long timeout;
+    private final long validationInterval;
+    private final int statementCacheSize;
+    private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = this.lock.newCondition();
+    private int open = 0;
+    private int active = 0;
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, int maxSize, long timeout, long validationInterval, int statementCacheSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.timeout = timeout;
+        this.validationInterval = validationInterval;
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Return the pool for the database given by the db-* system properties, creating it on first use.
+     */
+    public static synchronized ConnectionPool getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ConnectionPool("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD),
+                    Integer.getInteger(POOL_SIZE, 16), Long.getLong(POOL_TIMEOUT, 60000), Long.getLong(VALIDATION_INTERVAL, 30000), Integer.getInteger(STATEMENT_CACHE_SIZE, 50));
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Return a connection from the shared pool.
+     */
+    public static Connection getPooledConnection() throws SQLException, ClassNotFoundException {
+        Class.forName("org.postgresql.Driver");
+        return getSharedPool().getConnection();
+    }
+
+    /**
+     * Return a shard connected using a connection from the shared pool. The connection returns to the pool
+     * when the shard is disconnected.
+     */
+    public static OBDSQLShard createShard() throws SQLException, ClassNotFoundException {
+        final PooledOBDSQLShard shard = new PooledOBDSQLShard();
+        shard.connect(getPooledConnection());
+        return shard;
+    }
+
+    /**
+     * Borrow a connection, waiting if all connections are in use. Closing the returned connection
+     * hands it back to the pool.
+     */
+    public Connection getConnection() throws SQLException {
+        final long start = System.nanoTime();
+        PooledConnection pooled = null;
+        boolean create = false;
+        this.lock.lock();
+        try {
+            while ((pooled == null) && !create) {
+                if (!this.idle.isEmpty()) {
+                    pooled = this.idle.removeFirst();
+                } else if (this.open < this.maxSize) {
+                    this.open++;
+                    create = true;
+                } else {
+                    final long remaining = TimeUnit.MILLISECONDS.toNanos(this.timeout) - (System.nanoTime() - start);
+                    if (remaining <= 0) {
+                        throw new SQLException("No free database connection after " + this.timeout + " ms; " + this.active + " of " + this.maxSize + " in use (see " + POOL_SIZE + ")");
+                    }
+                    try {
+                        this.released.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection");
+                    }
+                }
+            }
+            this.active++;
+        } finally {
+            this.lock.unlock();
+        }
+        this.recordWait(System.nanoTime() - start);
+        try {
+            if (create) {
+                pooled = this.openConnection();
+            } else if (!this.validate(pooled)) {
+                this.invalidated.incrementAndGet();
+                pooled.closePhysical();
+                pooled = this.openConnection();
+            }
+        } catch (SQLException e) {
+            this.discard();
+            throw e;
+        } catch (RuntimeException e) {
+            this.discard();
+            throw e;
+        }
+        this.borrowed.incrementAndGet();
+        return pooled.checkOut();
+    }
+
+    public int getActiveCount() {
+        this.lock.lock();
+        try {
+            return this.active;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getIdleCount() {
+        this.lock.lock();
+        try {
+            return this.idle.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public long getBorrowCount() {
+        return this.borrowed.get();
+    }
+
+    public long getCreatedCount() {
+        return this.created.get();
+    }
+
+    public long getInvalidatedCount() {
+        return this.invalidated.get();
+    }
+
+    /**
+     * Return the total time callers have spent waiting for connections, in milliseconds.
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.waitNanos.get());
+    }
+
+    /**
+     * Return the longest time a caller has waited for a connection, in milliseconds.
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos.get());
+    }
+
+    public long getStatementCacheHits() {
+        return this.statementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return this.statementCacheMisses.get();
+    }
+
+    public void logStatistics() {
+        log().info("Connection pool: " + this.getActiveCount() + " active, " + this.getIdleCount() + " idle of " + this.maxSize + "; " + this.getBorrowCount() + " borrowed, " + this.getCreatedCount() + " opened, " + this.getInvalidatedCount() + " invalidated; wait " + this.getTotalWaitMillis() + " ms total, " + this.getMaxWaitMillis() + " ms max; statement cache " + this.getStatementCacheHits() + " hits, " + this.getStatementCacheMisses() + " misses");
+    }
+
+    /**
+     * Close all idle connections. Connections in use are closed when they are returned.
+     */
+    public void close() {
+        this.lock.lock();
+        try {
+            for (PooledConnection pooled : this.idle) {
+                pooled.closePhysical();
+                this.open--;
+            }
+            this.idle.clear();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        final PooledConnection pooled = new PooledConnection(DriverManager.getConnection(this.url, this.user, this.password));
+        this.created.incrementAndGet();
+        return pooled;
+    }
+
+    private boolean validate(PooledConnection pooled) {
+        if ((System.currentTimeMillis() - pooled.lastUsed) < this.validationInterval) {
+            return true;
+        }
+        try {
+            final Statement statement = pooled.connection.createStatement();
+            try {
+                statement.execute(VALIDATION_QUERY);
+            } finally {
+                statement.close();
+            }
+            return true;
+        } catch (SQLException e) {
+            log().warn("Discarding invalid pooled connection: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void recordWait(long nanos) {
+        this.waitNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = this.maxWaitNanos.get())) {
+            if (this.maxWaitNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Give up a slot whose connection could not be opened or has been closed.
+     */
+    private void discard() {
+        this.lock.lock();
+        try {
+            this.open--;
+            this.active--;
+            this.released.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        pooled.closeStatementsInUse();
+        boolean reusable;
+        try {
+            reusable = !pooled.connection.isClosed();
+            if (reusable && !pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            log().warn("Discarding pooled connection which could not be reset: " + e.getMessage());
+            reusable = false;
+        }
+        if (!reusable) {
+            pooled.closePhysical();
+            this.discard();
+            return;
+        }
+        pooled.lastUsed = System.currentTimeMillis();
+        this.lock.lock();
+        try {
+            this.active--;
+            this.idle.addFirst(pooled);
+            this.released.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Wrap a statement so that getConnection returns the borrower's handle rather than the physical connection,
+     * which must not be closed by the borrower.
+     */
+    private static Object ownedStatement(final Object statement, Class<?> type, final Connection owner) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getConnection")) {
+                    return owner;
+                }
+                return ConnectionPool.invoke(statement, method, args);
+            }
+        });
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+    /**
+     * A physical connection owned by the pool, with its prepared statement cache.
+     */
+    private class PooledConnection {
+
+        private final Connection connection;
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (this.size() > statementCacheSize) {
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
+        private long lastUsed = System.currentTimeMillis();
+
+        public PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Return a handle to this connection for a single borrower. Closing the handle releases the
+         * connection back to the pool; the handle cannot be used afterwards.
+         */
+        public Connection checkOut() {
+            return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, new InvocationHandler() {
+                private boolean closed = false;
+
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    final String name = method.getName();
+                    if (name.equals("close")) {
+                        if (!this.closed) {
+                            this.closed = true;
+                            release(PooledConnection.this);
+                        }
+                        return null;
+                    } else if (name.equals("isClosed")) {
+                        return this.closed || connection.isClosed();
+                    } else if (this.closed) {
+                        throw new SQLException("Connection has been returned to the pool");
+                    } else if (name.equals("prepareStatement") && (args.length == 1) && (statementCacheSize > 0)) {
+                        return prepareStatement((String)(args[0]), (Connection)proxy);
+                    } else if (name.equals("equals")) {
+                        return proxy == args[0];
+                    } else if (name.equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    final Object result = ConnectionPool.invoke(connection, method, args);
+                    if (result instanceof Statement) {
+                        return ownedStatement(result, method.getReturnType(), (Connection)proxy);
+                    }
+                    return result;
+                }
+            });
+        }
+
+        /**
+         * Return the cached statement for the given SQL if it is not already in use, or a new uncached statement otherwise.
+         */
+        private PreparedStatement prepareStatement(String sql, Connection owner) throws SQLException {
+            synchronized (this.statements) {
+                CachedStatement cached = this.statements.get(sql);
+                if (cached == null) {
+                    statementCacheMisses.incrementAndGet();
+                    cached = new CachedStatement(this.connection.prepareStatement(sql));
+                    this.statements.put(sql, cached);
+                } else if (cached.inUse) {
+                    statementCacheMisses.incrementAndGet();
+                    return (PreparedStatement)ownedStatement(this.connection.prepareStatement(sql), PreparedStatement.class, owner);
+                } else {
+                    statementCacheHits.incrementAndGet();
+                }
+                return cached.checkOut(owner);
+            }
+        }
+
+        /**
+         * Close cached statements which the last borrower left open, as closing a connection would.
+         */
+        public void closeStatementsInUse() {
+            synchronized (this.statements) {
+                for (Iterator<CachedStatement> iterator = this.statements.values().iterator(); iterator.hasNext();) {
+                    final CachedStatement cached = iterator.next();
+                    if (cached.inUse) {
+                        cached.closePhysical();
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+
+        public void closePhysical() {
+            synchronized (this.statements) {
+                for (CachedStatement cached : this.statements.values()) {
+                    cached.closePhysical();
+                }
+                this.statements.clear();
+            }
+            try {
+                this.connection.close();
+            } catch (SQLException e) {
+                log().warn("Failed closing pooled connection: " + e.getMessage());
+            }
+        }
+
+    }
+
+    /**
+     * A prepared statement kept open between uses. Closing a checked out handle clears the statement
+     * parameters and returns it to the cache.
+     */
+    private class CachedStatement {
+
+        private final PreparedStatement statement;
+        private boolean inUse = false;
+        private boolean evicted = false;
+
+        public CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        public PreparedStatement checkOut(final Connection owner) throws SQLException {
+            this.inUse = true;
+            this.statement.clearParameters();
+            return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+                private boolean closed = false;
+
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    final String name = method.getName();
+                    if (name.equals("close")) {
+                        if (!this.closed) {
+                            this.closed = true;
+                            checkIn();
+                        }
+                        return null;
+                    } else if (name.equals("isClosed")) {
+                        return this.closed;
+                    } else if (this.closed) {
+                        throw new SQLException("Statement has been closed");
+                    } else if (name.equals("getConnection")) {
+                        return owner;
+                    } else if (name.equals("equals")) {
+                        return proxy == args[0];
+                    } else if (name.equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    return ConnectionPool.invoke(statement, method, args);
+                }
+            });
+        }
+
+        private void checkIn() throws SQLException {
+            if (this.evicted) {
+                this.statement.close();
+                return;
+            }
+            final ResultSet result = this.statement.getResultSet();
+            if (result != null) {
+                result.close();
+            }
+            this.statement.clearBatch();
+            this.inUse = false;
+        }
+
+        /**
+         * Remove the statement from the cache, closing it once it is no longer in use.
+         */
+        public void evict() {
+            if (this.inUse) {
+                this.evicted = true;
+            } else {
+                this.closePhysical();
+            }
+        }
+
+        public void closePhysical() {
+            try {
+                this.statement.close();
+            } catch (SQLException e) {
+                log().warn("Failed closing cached statement: " + e.getMessage());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.phenoscape.obd.loader;
+
+import java.sql.SQLException;
+
+import org.obd.model.Graph;
+
+/**
+ * Stores translated OBD graphs in the database.
+ */
+public interface GraphWriter {
+
+    /** The graph-writer system property may contain "shard" to store graphs using Shard.putGraph, or "bulk" to stage them in temporary tables and apply each graph in one transaction. Defaults to "shard". */
+    public static final String GRAPH_WRITER = "graph-writer";
+
+    public void putGraph(Graph graph) throws SQLException;
+
+}
@@ -0,0 +1,31 @@
+package org.phenoscape.obd.loader;
+
+import org.apache.log4j.Logger;
+import org.obd.query.Shard;
+import org.obd.query.impl.AbstractSQLShard;
+
+public class GraphWriterFactory {
+
+    /**
+     * Create a writer storing graphs through the given shard, as chosen by the graph-writer system property.
+     * Bulk writing must be asked for: unlike putGraph, which skips rows that fail individually, it rolls back
+     * a whole graph when any row fails, and it applies statements in a different order. Bulk writing is only
+     * possible for shards backed by a database connection; other shards are always written using putGraph.
+     */
+    public static GraphWriter createGraphWriter(Shard shard) {
+        final String mode = System.getProperty(GraphWriter.GRAPH_WRITER, "shard");
+        if (mode.equals("bulk") && (shard instanceof AbstractSQLShard)) {
+            return new BulkGraphWriter((AbstractSQLShard)shard);
+        } else {
+            if (!mode.equals("bulk") && !mode.equals("shard")) {
+                log().warn("Unknown graph writer \"" + mode + "\"; using Shard.putGraph");
+            }
+            return new ShardGraphWriter(shard);
+        }
+    }
+
+    private static Logger log() {
+        return Logger.getLogger(GraphWriterFactory.class);
+    }
+
+}
@@ -1,22 +1,15 @@
 package org.phenoscape.obd.loader;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
-import org.bbop.dataadapter.DataAdapterException;
 import org.obd.model.CompositionalDescription;
 import org.obd.model.Graph;
 import org.obd.model.LinkStatement;
@@ -24,10 +17,6 @@ import org.obd.model.Node;
 import org.obd.model.Node.Metatype;
 import org.obd.query.Shard;
 import org.obd.query.impl.OBDSQLShard;
-import org.obo.dataadapter.OBOAdapter;
-import org.obo.dataadapter.OBOFileAdapter;
-import org.obo.datamodel.IdentifiedObject;
-import org.obo.datamodel.OBOClass;
 import org.obo.datamodel.OBOSession;
 import org.purl.obo.vocab.RelationVocabulary;
 
@@ -47,8 +36,7 @@ public class HomologyObdBridge {
     public static final String ONTOLOGY_DIR = "ontology-dir";
     /** The homology-url system property should contain the URL of the homology file. */
     public static final String HOMOLOGY_URL = "homology-url";
-    
-    
+
     public static String HAS_PUB_REL_ID = "PHENOSCAPE:has_publication";
     public static String IN_TAXON_REL_ID = "PHENOSCAPE:in_taxon";
     public static String HOMOLOG_TO_ID = "OBO_REL:homologous_to";
@@ -59,6 +47,7 @@ public class HomologyObdBridge {
     private static final RelationVocabulary relationVocabulary = new RelationVocabulary();
     
     private Shard shard;
+    private GraphWriter writer;
     private Graph graph;
     private OBOSession oboSession;
     
@@ -78,9 +67,10 @@ public class HomologyObdBridge {
     public HomologyObdBridge() throws SQLException, ClassNotFoundException {
         super();
         this.shard = this.initializeShard();
+        this.writer = GraphWriterFactory.createGraphWriter(this.shard);
         this.graph = new Graph();
-        this.setOboSession(this.loadOBOSession());
-        this.id2AlternateIdMap = createAltIdMappings(this.getOboSession());
+        this.setOboSession(OntologyLoader.getSession());
+        this.id2AlternateIdMap = OntologyLoader.getIndex().getAlternateIDMappings();
     }
     
     public OBOSession getOboSession() {
@@ -101,28 +91,39 @@ public class HomologyObdBridge {
      * <AnatomicalEntity>^PHENOSCAPE:in_taxon(<Taxon>) OBO_REL:homologous_to <AnatomicalEntity>^PHENOSCAPE:in_taxon(<Taxon>) 
      * @throws MalformedURLException
      * @throws IOException
+     * @throws SQLException
      */
-    public void loadHomologyData() throws MalformedURLException, IOException {
+    public void loadHomologyData() throws MalformedURLException, IOException, SQLException {
+        try {
+            this.readHomologyFile();
+        } finally {
+            this.shard.disconnect();
+        }
+    }
+
+    private void readHomologyFile() throws MalformedURLException, IOException, SQLException {
         String homologyFileLine;
         String anatId1, anatId2, taxonId1, taxonId2, pub, evidCode;
         
         URL homologyURL = new URL(System.getProperty(HOMOLOGY_URL));
         
-        BufferedReader br = new BufferedReader(new InputStreamReader(homologyURL.openStream()));
+        BufferedReader br = InputReaderFactory.createReader(homologyURL);
         
         int j = 0;
+        final TSVCursor cursor = new TSVCursor();
         
         /*
          * Read in the homology file
          */
         while((homologyFileLine = br.readLine()) != null){
-        	String hComps[] = homologyFileLine.split("\\t");
-        	pub = hComps[0];
-        	anatId1 = hComps[1];
-        	taxonId1 = hComps[3];
-        	anatId2 = hComps[5];
-        	taxonId2 = hComps[7];
-        	evidCode = hComps[9];
+        	LoadMetrics.count("homology.lines");
+        	cursor.reset(homologyFileLine);
+        	pub = cursor.get(0);
+        	anatId1 = cursor.get(1);
+        	taxonId1 = cursor.get(3);
+        	anatId2 = cursor.get(5);
+        	taxonId2 = cursor.get(7);
+        	evidCode = cursor.get(9);
         	/*
         	 * This IF block has been added to eliminate the title row which is
         	 * Entity1Id     Entity1    Entity2Id .....
@@ -188,43 +189,7 @@ public class HomologyObdBridge {
         		graph.addStatement(homologStmt);
         	}
         }
-        shard.putGraph(graph);
-    }
-    
-    /**
-     * This method loads in all the ontologies in a specific location
-     * and creates an OBOSession instance containing all the extracted
-     * terms
-     * @return
-     */
-    private OBOSession loadOBOSession() {
-        final OBOFileAdapter fileAdapter = new OBOFileAdapter();
-        OBOFileAdapter.OBOAdapterConfiguration config = new OBOFileAdapter.OBOAdapterConfiguration();
-        config.setReadPaths(this.getOntologyPaths());
-        config.setBasicSave(false);
-        config.setAllowDangling(true);
-        config.setFollowImports(false);
-        try {
-            return fileAdapter.doOperation(OBOAdapter.READ_ONTOLOGY, config, null);
-        } catch (DataAdapterException e) {
-            log().fatal("Failed to load ontologies", e);
-            return null;
-        }
-    }
-
-    /**
-     * A helper method to load in all the locations where
-     * the ontologies are stored
-     * @return
-     */
-    private List<String> getOntologyPaths() {
-        List<String> paths = new ArrayList<String>();
-        File ontCache = new File(System.getProperty(ONTOLOGY_DIR));
-        for (File f : ontCache.listFiles()) {
-            paths.add(f.getAbsolutePath());
-            log().trace(paths.toString());
-        }
-        return paths;
+        this.writer.putGraph(graph);
     }
     
     /**
@@ -235,8 +200,7 @@ public class HomologyObdBridge {
      * @throws ClassNotFoundException
      */
     private Shard initializeShard() throws SQLException, ClassNotFoundException {
-        OBDSQLShard obdsql = new OBDSQLShard();
-        obdsql.connect("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        final OBDSQLShard obdsql = ConnectionPool.createShard();
         return obdsql;
     }
 
@@ -244,31 +208,6 @@ public class HomologyObdBridge {
         return Logger.getLogger(this.getClass());
     }
     
-    
-    /**
-     * This method uses the OBOSession argument to find all
-     * alternate IDs in the loaded ontologies and map them
-     * to their resp main IDs in the altID map
-     * @param session
-     * @return
-     */
-    
-    private Map<String, String> createAltIdMappings(OBOSession session) {
-    	Map<String, String> altIDMappings = new HashMap<String, String>();
-        log().trace("Called alt_id search");
-        final Collection<IdentifiedObject> terms = session.getObjects();
-        for (IdentifiedObject object : terms) {
-            if (object instanceof OBOClass) {
-                final OBOClass term = (OBOClass)object;
-                if (term.getSecondaryIDs() != null && term.getSecondaryIDs().size() > 0) {
-                	for(String altID : term.getSecondaryIDs())
-                		altIDMappings.put(altID, term.getID());
-                }
-            }
-        }
-        return altIDMappings;
-    }
-    
     /**
      * This method creates a Node for an instance of the {@param typeId} and 
      * adds the Node to the graph
@@ -0,0 +1,174 @@
+package org.phenoscape.obd.loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Opens data file URLs for reading lines, with large buffers and an explicit character set. Gzip compressed
+ * input is detected from its leading bytes and decompressed, so data files can be kept compressed whatever
+ * their names. Input compressed with bzip2 or zstd is also recognized, but there is no decoder for these in
+ * the loader's libraries, so it is reported rather than being read as garbage. Local files are optionally
+ * read through memory mapping rather than stream reads.
+ */
+public class InputReaderFactory {
+
+    /** The input-charset system property may contain the character set of data files which don't have a known encoding. Defaults to UTF-8. */
+    public static final String INPUT_CHARSET = "input-charset";
+    /** The input-buffer-size system property may contain the size in bytes of the buffers used to read data files. */
+    public static final String INPUT_BUFFER_SIZE = "input-buffer-size";
+    /** The input-memory-map system property may be set to true to read file: URLs by mapping them into memory. */
+    public static final String INPUT_MEMORY_MAP = "input-memory-map";
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    /** Larger files are mapped a segment at a time. */
+    private static final long MAP_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Open the URL using the character set given by the input-charset system property.
+     */
+    public static BufferedReader createReader(URL url) throws IOException {
+        return createReader(url, Charset.forName(System.getProperty(INPUT_CHARSET, "UTF-8")));
+    }
+
+    public static BufferedReader createReader(URL url, Charset charset) throws IOException {
+        final int bufferSize = Integer.getInteger(INPUT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+        return new BufferedReader(new InputStreamReader(createInputStream(url), charset), bufferSize);
+    }
+
+    /**
+     * Open the URL as decompressed bytes, for formats such as XML which declare their own encoding.
+     */
+    public static InputStream createInputStream(URL url) throws IOException {
+        final int bufferSize = Integer.getInteger(INPUT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+        final BufferedInputStream input = new BufferedInputStream(openStream(url), bufferSize);
+        switch (detectCompression(input)) {
+        case GZIP:
+            log().debug("Reading gzip compressed " + url);
+            return new GZIPInputStream(input, bufferSize);
+        case BZIP2:
+            input.close();
+            throw new IOException("Input is bzip2 compressed, which is not supported; decompress or gzip it: " + url);
+        case ZSTD:
+            input.close();
+            throw new IOException("Input is zstd compressed, which is not supported; decompress or gzip it: " + url);
+        default:
+            return input;
+        }
+    }
+
+    private static InputStream openStream(URL url) throws IOException {
+        if (Boolean.getBoolean(INPUT_MEMORY_MAP) && "file".equals(url.getProtocol())) {
+            return new MappedFileInputStream(new File(URLDecoder.decode(url.getPath(), "UTF-8")));
+        } else {
+            return url.openStream();
+        }
+    }
+
+    private enum Compression { NONE, GZIP, BZIP2, ZSTD }
+
+    private static Compression detectCompression(BufferedInputStream input) throws IOException {
+        final byte[] magic = new byte[4];
+        input.mark(magic.length);
+        int count = 0;
+        int read;
+        while ((count < magic.length) && ((read = input.read(magic, count, magic.length - count)) != -1)) {
+            count += read;
+        }
+        input.reset();
+        if ((count >= 2) && (magic[0] == (byte)0x1f) && (magic[1] == (byte)0x8b)) {
+            return Compression.GZIP;
+        } else if ((count >= 3) && (magic[0] == 'B') && (magic[1] == 'Z') && (magic[2] == 'h')) {
+            return Compression.BZIP2;
+        } else if ((count >= 4) && (magic[0] == (byte)0x28) && (magic[1] == (byte)0xb5) && (magic[2] == (byte)0x2f) && (magic[3] == (byte)0xfd)) {
+            return Compression.ZSTD;
+        } else {
+            return Compression.NONE;
+        }
+    }
+
+    private static Logger log() {
+        return Logger.getLogger(InputReaderFactory.class);
+    }
+
+    /**
+     * Reads a file through a series of read-only memory mapped segments.
+     */
+    private static class MappedFileInputStream extends InputStream {
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final long length;
+        private long segmentStart = 0;
+        private MappedByteBuffer segment;
+
+        public MappedFileInputStream(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "r");
+            this.channel = this.file.getChannel();
+            this.length = this.channel.size();
+            this.mapSegment(0);
+        }
+
+        private void mapSegment(long start) throws IOException {
+            this.segmentStart = start;
+            this.segment = this.channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_SEGMENT_SIZE, this.length - start));
+        }
+
+        /**
+         * Move to the next segment if the current one is used up, returning false at the end of the file.
+         */
+        private boolean ensureAvailable() throws IOException {
+            if (this.segment.hasRemaining()) {
+                return true;
+            }
+            final long next = this.segmentStart + this.segment.capacity();
+            if (next >= this.length) {
+                return false;
+            }
+            this.mapSegment(next);
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.ensureAvailable() ? (this.segment.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!this.ensureAvailable()) {
+                return -1;
+            }
+            final int count = Math.min(length, this.segment.remaining());
+            this.segment.get(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return this.segment.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+            this.file.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,372 @@
+package org.phenoscape.obd.loader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the loaders making up a full knowledgebase build within a single JVM, so that they share the
+ * ontology session and the database connection pool. The loaders are stages of a dependency graph:
+ * each stage starts as soon as the stages it depends on have finished, so independent stages run at
+ * the same time. Stages depending on a failed stage are skipped. The time taken by each stage is
+ * logged when the build finishes. With the --resume argument, each loader continues from the checkpoint
+ * left by an earlier build.
+ */
+public class KnowledgebaseBuilder {
+
+    /** The kb-build-threads system property may contain the number of stages run at the same time. */
+    public static final String BUILD_THREADS = "kb-build-threads";
+    /** The kb-stages system property may contain a comma-separated list of the stages to run. Stages not listed are treated as already done. Defaults to all stages. */
+    public static final String STAGES = "kb-stages";
+    /** The phenoscape-data-dir system property should contain the path to the folder of Phenoscape NeXML data files. */
+    public static final String PHENOSCAPE_DATA_DIR = "phenoscape-data-dir";
+
+    private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+    private final Map<String, StageResult> results = Collections.synchronizedMap(new LinkedHashMap<String, StageResult>());
+
+    public KnowledgebaseBuilder() {
+        this.addStage(new Stage("zfin") {
+            public void run() throws Exception {
+                new ZfinObdBridge().loadZfinData();
+            }
+        });
+        this.addStage(new Stage("zfin-publications", "zfin") {
+            public void run() throws Exception {
+                new ZFINPublicationsLoader().loadPublicationsData();
+            }
+        });
+        this.addStage(new Stage("go-annotations", "zfin") {
+            public void run() throws Exception {
+                new ZFINGOAnnotationsLoader().loadAnnotationsData();
+            }
+        });
+        this.addStage(new Stage("publications") {
+            public void run() throws Exception {
+                PublicationLoader.main(new String[0]);
+            }
+        });
+        // the data, homology and ZFIN loads store many of the same post-composed and publication nodes, and storing the
+        // same node concurrently can conflict, which with the bulk writer rolls back a whole graph; so they run in turn
+        this.addStage(new Stage("phenoscape-data", "zfin", "publications") {
+            public void run() throws Exception {
+                new PhenoscapeDataLoader().loadDataFolder(new File(System.getProperty(PHENOSCAPE_DATA_DIR)));
+            }
+        });
+        this.addStage(new Stage("homology", "phenoscape-data") {
+            public void run() throws Exception {
+                new HomologyObdBridge().loadHomologyData();
+            }
+        });
+        // the generated phenotypes may already have been stored by the ZFIN or data loads, and storing the same node concurrently can conflict
+        this.addStage(new Stage("absent-phenotypes", "zfin", "phenoscape-data") {
+            public void run() throws Exception {
+                new AbsentPhenotypesLoader().loadAbsentPhenotypes();
+            }
+        });
+        this.addStage(new Stage("attribute-phenotypes", "absent-phenotypes") {
+            public void run() throws Exception {
+                new AttributePhenotypesLoader().loadAttributePhenotypes();
+            }
+        });
+        this.addStage(new Stage("anatomy-xrefs") {
+            public void run() throws Exception {
+                new AnatomyXrefModifier().modifyXrefs();
+            }
+        });
+        final String[] databaseStages = this.stages.keySet().toArray(new String[0]);
+        this.addStage(new Stage("solr-clear", databaseStages) {
+            public void run() throws Exception {
+                new SolrClearer().clearSolrIndex();
+            }
+        });
+        this.addStage(new Stage("solr-taxa", "solr-clear") {
+            public void run() throws Exception {
+                new SolrTaxonLoader().loadTaxaIntoSolr();
+            }
+        });
+        this.addStage(new Stage("solr-phenotypes", "solr-clear") {
+            public void run() throws Exception {
+                new SolrPhenotypeLoader().loadPhenotypeAssociationsIntoSolr();
+            }
+        });
+        this.addStage(new Stage("solr-genes", "solr-clear") {
+            public void run() throws Exception {
+                new SolrGeneLoader().loadGenesIntoSolr();
+            }
+        });
+        this.addStage(new Stage("solr-gene-annotations", "solr-clear") {
+            public void run() throws Exception {
+                new SolrGeneAnnotationLoader().loadGeneAnnotationsIntoSolr();
+            }
+        });
+        this.addStage(new Stage("solr-publications", "solr-clear") {
+            public void run() throws Exception {
+                new SolrPublicationLoader().loadPublicationsIntoSolr();
+            }
+        });
+        this.addStage(new Stage("solr-phenotype-annotations", "solr-clear") {
+            public void run() throws Exception {
+                new SolrPhenotypeAnnotationLoader().loadPhenotypeAnnotationsIntoSolr();
+            }
+        });
+    }
+
+    private void addStage(Stage stage) {
+        for (String dependency : stage.dependencies) {
+            if (!this.stages.containsKey(dependency)) {
+                throw new IllegalArgumentException("Stage " + stage.name + " depends on unknown stage " + dependency);
+            }
+        }
+        this.stages.put(stage.name, stage);
+    }
+
+    public List<String> getStageNames() {
+        return new ArrayList<String>(this.stages.keySet());
+    }
+
+    /**
+     * Run the given stages, each once all of its dependencies among them have succeeded.
+     * @return whether all stages succeeded
+     */
+    public boolean build(Set<String> selected, int threads) throws InterruptedException {
+        for (String name : selected) {
+            if (!this.stages.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown stage: " + name);
+            }
+        }
+        this.checkPoolSize(Math.min(threads, selected.size()));
+        log().info("Building stages " + selected + " using " + threads + " threads");
+        final long start = System.currentTimeMillis();
+        final Set<String> waiting = new HashSet<String>(selected);
+        final Set<String> succeeded = new HashSet<String>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CompletionService<StageResult> completion = new ExecutorCompletionService<StageResult>(executor);
+        int running = 0;
+        try {
+            while (!waiting.isEmpty() || (running > 0)) {
+                for (String name : this.getStageNames()) {
+                    if (!waiting.contains(name)) {
+                        continue;
+                    }
+                    final Stage stage = this.stages.get(name);
+                    final String blocker = this.findFailedDependency(stage, selected, succeeded);
+                    if (blocker != null) {
+                        waiting.remove(name);
+                        this.results.put(name, StageResult.skipped(name, blocker));
+                        log().warn("Skipping stage " + name + " because " + blocker + " did not succeed");
+                    } else if (this.isReady(stage, selected, succeeded)) {
+                        waiting.remove(name);
+                        completion.submit(new StageTask(stage));
+                        running++;
+                    }
+                }
+                if (running > 0) {
+                    final StageResult result;
+                    try {
+                        result = completion.take().get();
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                    running--;
+                    this.results.put(result.name, result);
+                    if (result.failure == null) {
+                        succeeded.add(result.name);
+                    }
+                } else if (!waiting.isEmpty()) {
+                    throw new IllegalStateException("No runnable stages among " + waiting);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        this.logTimings(System.currentTimeMillis() - start);
+        return succeeded.size() == selected.size();
+    }
+
+    /**
+     * Fail before starting if the stages running at once could need more connections than the pool holds, rather
+     * than have them time out waiting for each other.
+     */
+    private void checkPoolSize(int threads) {
+        final int needed = threads * getConnectionsPerStage();
+        final int poolSize = ConnectionPool.getSharedPool().getMaxSize();
+        if (poolSize < needed) {
+            throw new IllegalArgumentException(threads + " concurrent stages may use up to " + needed + " database connections, but the pool holds " + poolSize + "; raise " + ConnectionPool.POOL_SIZE + " or lower " + BUILD_THREADS);
+        }
+    }
+
+    /**
+     * Return the largest number of pooled connections a single stage holds at once.
+     */
+    private static int getConnectionsPerStage() {
+        final int dataConnections = (Integer.getInteger(PhenoscapeDataLoader.LOADER_THREADS, 1) > 1) ? Integer.getInteger(PhenoscapeDataLoader.WRITER_CONNECTIONS, 1) : 1;
+        final int solrConnections = SolrLoadingPipeline.isEnabled() ? 1 + Integer.getInteger(SolrLoadingPipeline.SOLR_BUILDER_THREADS) : 1;
+        return Math.max(dataConnections, solrConnections);
+    }
+
+    private boolean isReady(Stage stage, Set<String> selected, Set<String> succeeded) {
+        for (String dependency : stage.dependencies) {
+            if (selected.contains(dependency) && !succeeded.contains(dependency)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a selected dependency of the stage which has finished without succeeding, or null if there is none.
+     */
+    private String findFailedDependency(Stage stage, Set<String> selected, Set<String> succeeded) {
+        for (String dependency : stage.dependencies) {
+            if (selected.contains(dependency) && this.results.containsKey(dependency) && !succeeded.contains(dependency)) {
+                return dependency;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the outcome of each stage run so far, in the order the stages finished.
+     */
+    public Map<String, StageResult> getResults() {
+        synchronized (this.results) {
+            return new LinkedHashMap<String, StageResult>(this.results);
+        }
+    }
+
+    private void logTimings(long totalMillis) {
+        log().info("Stage timings:");
+        for (StageResult result : this.getResults().values()) {
+            log().info(String.format("  %-28s %-9s %10.1f s", result.name, result.getStatus(), result.millis / 1000.0));
+        }
+        log().info(String.format("  %-28s %-9s %10.1f s", "total", "", totalMillis / 1000.0));
+        ConnectionPool.getSharedPool().logStatistics();
+        LoadMetrics.logSummary();
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+    /**
+     * A loader run as one step of the build.
+     */
+    public abstract static class Stage {
+
+        private final String name;
+        private final List<String> dependencies;
+
+        public Stage(String name, String... dependencies) {
+            this.name = name;
+            this.dependencies = Arrays.asList(dependencies);
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public List<String> getDependencies() {
+            return Collections.unmodifiableList(this.dependencies);
+        }
+
+        public abstract void run() throws Exception;
+
+    }
+
+    public static class StageResult {
+
+        private final String name;
+        private final long millis;
+        private final Throwable failure;
+        private final String skippedFor;
+
+        private StageResult(String name, long millis, Throwable failure, String skippedFor) {
+            this.name = name;
+            this.millis = millis;
+            this.failure = failure;
+            this.skippedFor = skippedFor;
+        }
+
+        public static StageResult skipped(String name, String failedDependency) {
+            return new StageResult(name, 0, null, failedDependency);
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public long getMillis() {
+            return this.millis;
+        }
+
+        public Throwable getFailure() {
+            return this.failure;
+        }
+
+        public String getStatus() {
+            if (this.skippedFor != null) {
+                return "skipped";
+            }
+            return (this.failure != null) ? "failed" : "done";
+        }
+
+    }
+
+    private class StageTask implements Callable<StageResult> {
+
+        private final Stage stage;
+
+        public StageTask(Stage stage) {
+            this.stage = stage;
+        }
+
+        public StageResult call() {
+            log().info("Starting stage " + this.stage.name);
+            final long start = System.currentTimeMillis();
+            Throwable failure = null;
+            try {
+                this.stage.run();
+            } catch (Throwable e) {
+                log().error("Stage " + this.stage.name + " failed", e);
+                failure = e;
+            }
+            final long millis = System.currentTimeMillis() - start;
+            LoadMetrics.record("stage." + this.stage.name, millis * 1000000);
+            log().info("Finished stage " + this.stage.name + " in " + (millis / 1000.0) + " s");
+            return new StageResult(this.stage.name, millis, failure, null);
+        }
+
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadCheckpoint.parseArguments(args);
+        final KnowledgebaseBuilder builder = new KnowledgebaseBuilder();
+        final Set<String> selected = new HashSet<String>();
+        final String stages = System.getProperty(STAGES);
+        if (stages != null) {
+            for (String stage : stages.split(",")) {
+                selected.add(stage.trim());
+            }
+        } else {
+            selected.addAll(builder.getStageNames());
+        }
+        if (!builder.build(selected, Integer.getInteger(BUILD_THREADS, 3))) {
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package org.phenoscape.obd.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The progress of a loader, saved to a local file as work is completed. A run started with the --resume
+ * argument (or the loader-resume system property) reads the checkpoint left by an earlier failed run and
+ * skips the work it records; any other run discards old checkpoints and starts from the beginning. Loaders
+ * store a hash of the input they have consumed alongside their position, so that a resumed run can refuse
+ * to continue over input which has changed.
+ */
+public class LoadCheckpoint {
+
+    /** The checkpoint-dir system property may contain the folder in which loader checkpoints are written. Defaults to the system temporary folder. */
+    public static final String CHECKPOINT_DIR = "checkpoint-dir";
+    /** The loader-resume system property may be set to true to continue from existing checkpoints. */
+    public static final String RESUME = "loader-resume";
+    /** Command line argument accepted by the loaders to continue from existing checkpoints. */
+    public static final String RESUME_ARGUMENT = "--resume";
+    private static final String COMPLETE = "complete";
+    /** Deferred updates are saved once this many have accumulated, or after DEFERRED_SAVE_MILLIS. */
+    private static final int DEFERRED_SAVE_UPDATES = 100;
+    private static final long DEFERRED_SAVE_MILLIS = 30000;
+
+    private final String name;
+    private final File file;
+    private final Properties properties = new Properties();
+    private int pendingUpdates = 0;
+    private long lastSaveMillis = System.currentTimeMillis();
+
+    private LoadCheckpoint(String name, File file) {
+        this.name = name;
+        this.file = file;
+    }
+
+    /**
+     * Return the checkpoint for the named loader. Unless resuming, any existing checkpoint is discarded.
+     */
+    public static LoadCheckpoint open(String name) throws IOException {
+        final File folder = new File(System.getProperty(CHECKPOINT_DIR, System.getProperty("java.io.tmpdir")));
+        final LoadCheckpoint checkpoint = new LoadCheckpoint(name, new File(folder, "phenoscape-" + name + ".checkpoint"));
+        if (isResuming() && checkpoint.file.exists()) {
+            final InputStream input = new FileInputStream(checkpoint.file);
+            try {
+                checkpoint.properties.load(input);
+            } finally {
+                input.close();
+            }
+            checkpoint.log().info("Resuming " + name + " from checkpoint " + checkpoint.file);
+        } else if (checkpoint.file.exists() && !checkpoint.file.delete()) {
+            throw new IOException("Unable to remove old checkpoint " + checkpoint.file);
+        }
+        return checkpoint;
+    }
+
+    public static boolean isResuming() {
+        return Boolean.getBoolean(RESUME);
+    }
+
+    /**
+     * Turn on resuming if the arguments include --resume, and return the remaining arguments.
+     */
+    public static String[] parseArguments(String[] args) {
+        final List<String> remaining = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals(RESUME_ARGUMENT)) {
+                System.setProperty(RESUME, "true");
+            } else {
+                remaining.add(arg);
+            }
+        }
+        return remaining.toArray(new String[remaining.size()]);
+    }
+
+    public synchronized String get(String key) {
+        return this.properties.getProperty(key);
+    }
+
+    public synchronized int getInt(String key, int defaultValue) {
+        final String value = this.get(key);
+        return (value != null) ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * Record the given alternating keys and values and write the checkpoint file.
+     */
+    public synchronized void update(String... keysAndValues) throws IOException {
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            this.properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        this.save();
+    }
+
+    /**
+     * Record the given alternating keys and values, but only write the checkpoint file once enough updates have
+     * accumulated or enough time has passed, so that loaders recording many small steps don't rewrite the whole
+     * file for each one. A failure loses at most the unsaved updates, whose work is repeated on resume. Call
+     * flush() when the work is done.
+     */
+    public synchronized void updateDeferred(String... keysAndValues) throws IOException {
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            this.properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        this.pendingUpdates++;
+        if ((this.pendingUpdates >= DEFERRED_SAVE_UPDATES) || ((System.currentTimeMillis() - this.lastSaveMillis) >= DEFERRED_SAVE_MILLIS)) {
+            this.save();
+        }
+    }
+
+    /**
+     * Write any deferred updates to the checkpoint file.
+     */
+    public synchronized void flush() throws IOException {
+        if (this.pendingUpdates > 0) {
+            this.save();
+        }
+    }
+
+    public synchronized boolean isComplete() {
+        return Boolean.valueOf(this.get(COMPLETE));
+    }
+
+    /**
+     * Record that the loader finished, so that resumed runs skip it entirely.
+     */
+    public void markComplete() throws IOException {
+        this.update(COMPLETE, "true");
+    }
+
+    /**
+     * Write to a temporary file first, so that a crash while saving leaves the previous checkpoint intact.
+     */
+    private void save() throws IOException {
+        final File temp = new File(this.file.getPath() + ".tmp");
+        final OutputStream output = new FileOutputStream(temp);
+        try {
+            this.properties.store(output, "Checkpoint for " + this.name);
+        } finally {
+            output.close();
+        }
+        if (this.file.exists() && !this.file.delete()) {
+            throw new IOException("Unable to replace checkpoint " + this.file);
+        }
+        if (!temp.renameTo(this.file)) {
+            throw new IOException("Unable to write checkpoint " + this.file);
+        }
+        this.pendingUpdates = 0;
+        this.lastSaveMillis = System.currentTimeMillis();
+    }
+
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 is a required algorithm", e);
+        }
+    }
+
+    /**
+     * Return the hash of the data given to the digest so far, leaving the digest able to accept more data.
+     */
+    public static String currentHash(MessageDigest digest) {
+        try {
+            return toHex(((MessageDigest)digest.clone()).digest());
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Digest can't be copied: " + digest.getAlgorithm(), e);
+        }
+    }
+
+    public static String hashFile(File file) throws IOException {
+        final MessageDigest digest = createDigest();
+        final InputStream input = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuffer hex = new StringBuffer();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
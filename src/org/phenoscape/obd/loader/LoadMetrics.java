@@ -0,0 +1,237 @@
+package org.phenoscape.obd.loader;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counters and latency histograms shared by all loaders, named by phase (for example "data.parse", "db.write",
+ * "solr.add"). Counter rates are logged periodically while loading, and a tab-delimited summary of all metrics
+ * is written to a file when the JVM exits.
+ */
+public class LoadMetrics {
+
+    /** The metrics-file system property may contain the path of the summary written at exit. Defaults to phenoscape-metrics.tsv in the system temporary folder. */
+    public static final String METRICS_FILE = "metrics-file";
+    /** The metrics-report-interval system property may contain the number of seconds between logged reports of counter rates, or 0 to disable them. */
+    public static final String REPORT_INTERVAL = "metrics-report-interval";
+    private static final int DEFAULT_REPORT_INTERVAL = 60;
+
+    private static final LoadMetrics INSTANCE = new LoadMetrics();
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Histogram> timers = new ConcurrentHashMap<String, Histogram>();
+    private final Map<String, Long> lastReported = new TreeMap<String, Long>();
+    private final long startMillis = System.currentTimeMillis();
+    private long lastReportMillis = this.startMillis;
+
+    private LoadMetrics() {
+        final int interval = Integer.getInteger(REPORT_INTERVAL, DEFAULT_REPORT_INTERVAL);
+        if (interval > 0) {
+            final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "load-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            reporter.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    logRates();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread("load-metrics-summary") {
+            @Override
+            public void run() {
+                writeSummary();
+            }
+        });
+    }
+
+    /**
+     * Add to the named counter.
+     */
+    public static void count(String name, long amount) {
+        INSTANCE.getCounter(name).addAndGet(amount);
+    }
+
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    /**
+     * Start timing one occurrence of the named phase; call stop() on the returned timer when it finishes.
+     */
+    public static Timer start(String phase) {
+        return new Timer(phase);
+    }
+
+    /**
+     * Record one occurrence of the named phase which took the given time.
+     */
+    public static void record(String phase, long nanos) {
+        INSTANCE.getHistogram(phase).record(nanos);
+    }
+
+    private AtomicLong getCounter(String name) {
+        final AtomicLong counter = this.counters.get(name);
+        if (counter != null) {
+            return counter;
+        }
+        this.counters.putIfAbsent(name, new AtomicLong());
+        return this.counters.get(name);
+    }
+
+    private Histogram getHistogram(String phase) {
+        final Histogram histogram = this.timers.get(phase);
+        if (histogram != null) {
+            return histogram;
+        }
+        this.timers.putIfAbsent(phase, new Histogram());
+        return this.timers.get(phase);
+    }
+
+    private synchronized void logRates() {
+        final long now = System.currentTimeMillis();
+        final double seconds = Math.max(1, now - this.lastReportMillis) / 1000.0;
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(this.counters).entrySet()) {
+            final long value = entry.getValue().get();
+            final Long previous = this.lastReported.get(entry.getKey());
+            final long delta = value - ((previous != null) ? previous : 0);
+            if (delta > 0) {
+                log().info(String.format("%s: %d (%.1f/s)", entry.getKey(), value, delta / seconds));
+            }
+            this.lastReported.put(entry.getKey(), value);
+        }
+        this.lastReportMillis = now;
+    }
+
+    /**
+     * Log all counters and timers, with overall rates since the metrics were started.
+     */
+    public static void logSummary() {
+        final double seconds = Math.max(1, System.currentTimeMillis() - INSTANCE.startMillis) / 1000.0;
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(INSTANCE.counters).entrySet()) {
+            final long value = entry.getValue().get();
+            log().info(String.format("%s: %d (%.1f/s)", entry.getKey(), value, value / seconds));
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(INSTANCE.timers).entrySet()) {
+            log().info(entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    /**
+     * Write all counters and timers to the metrics file, one per line.
+     */
+    public static void writeSummary() {
+        final File file = new File(System.getProperty(METRICS_FILE, new File(System.getProperty("java.io.tmpdir"), "phenoscape-metrics.tsv").getPath()));
+        try {
+            final PrintWriter writer = new PrintWriter(new FileWriter(file));
+            try {
+                INSTANCE.writeSummary(writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            log().error("Failed writing metrics to " + file, e);
+        }
+    }
+
+    private void writeSummary(PrintWriter writer) {
+        final double seconds = Math.max(1, System.currentTimeMillis() - this.startMillis) / 1000.0;
+        writer.println("name\ttype\tcount\trate_per_s\ttotal_ms\tmean_ms\tp50_ms\tp95_ms\tp99_ms\tmax_ms");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(this.counters).entrySet()) {
+            final long value = entry.getValue().get();
+            writer.println(String.format("%s\tcounter\t%d\t%.3f\t\t\t\t\t\t", entry.getKey(), value, value / seconds));
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(this.timers).entrySet()) {
+            writer.println(entry.getKey() + "\ttimer\t" + entry.getValue().toColumns(seconds));
+        }
+    }
+
+    private static Logger log() {
+        return Logger.getLogger(LoadMetrics.class);
+    }
+
+    /**
+     * Times one occurrence of a phase.
+     */
+    public static class Timer {
+
+        private final String phase;
+        private final long start = System.nanoTime();
+
+        private Timer(String phase) {
+            this.phase = phase;
+        }
+
+        /**
+         * Record the time since the timer was started.
+         */
+        public void stop() {
+            record(this.phase, System.nanoTime() - this.start);
+        }
+
+    }
+
+    /**
+     * Latencies counted in buckets of powers of two microseconds, so that percentiles are accurate to within a factor of two.
+     */
+    private static class Histogram {
+
+        private static final int BUCKETS = 48;
+        private final long[] buckets = new long[BUCKETS];
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        public synchronized void record(long nanos) {
+            final long micros = Math.max(1, nanos / 1000);
+            this.buckets[Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros))]++;
+            this.count++;
+            this.totalNanos += nanos;
+            this.maxNanos = Math.max(this.maxNanos, nanos);
+        }
+
+        /**
+         * Return the upper bound in milliseconds of the bucket containing the given fraction of recorded times.
+         */
+        private double percentile(double fraction) {
+            final long target = (long)Math.ceil(this.count * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.buckets[i];
+                if (seen >= target) {
+                    return Math.min(this.maxNanos / 1000000.0, (1L << (i + 1)) / 1000.0);
+                }
+            }
+            return this.maxNanos / 1000000.0;
+        }
+
+        public synchronized String toColumns(double seconds) {
+            final double totalMillis = this.totalNanos / 1000000.0;
+            return String.format("%d\t%.3f\t%.1f\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f", this.count, this.count / seconds, totalMillis, totalMillis / Math.max(1, this.count), this.percentile(0.5), this.percentile(0.95), this.percentile(0.99), this.maxNanos / 1000000.0);
+        }
+
+        @Override
+        public synchronized String toString() {
+            final double totalMillis = this.totalNanos / 1000000.0;
+            return String.format("%d in %.1f s (mean %.3f ms, p95 %.3f ms, max %.3f ms)", this.count, totalMillis / 1000, totalMillis / Math.max(1, this.count), this.percentile(0.95), this.maxNanos / 1000000.0);
+        }
+
+    }
+
+}
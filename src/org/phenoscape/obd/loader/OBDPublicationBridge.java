@@ -2,7 +2,9 @@ package org.phenoscape.obd.loader;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -10,11 +12,16 @@ import java.util.List;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
+import org.jdom.Text;
 import org.jdom.input.DOMBuilder;
 import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
@@ -31,20 +38,90 @@ public class OBDPublicationBridge {
 
     private static final String ITALICS_XSLT =  "<?xml version=\"1.0\" encoding=\"UTF-8\" ?> <xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"> <xsl:output encoding=\"UTF-8\" indent=\"yes\" method=\"xml\" /> <xsl:template match=\"/\"> <xsl:apply-templates/> </xsl:template> <xsl:template match=\"style[@face='italic']\"> <i><xsl:apply-templates/></i> </xsl:template> </xsl:stylesheet> ";
 
+    private XSLTransformer italicsTransformer;
+
     public Graph translate(org.w3c.dom.Document endnoteXML) throws XSLTransformException {
         final Graph graph = new Graph();
         final org.jdom.Document endnoteDoc = new DOMBuilder().build(endnoteXML);
         final Element records = endnoteDoc.getRootElement().getChild("records");
         for (Object recordObj : records.getChildren("record")) {
             final Element record = (Element)recordObj;
-            final Graph pubGraph = this.translateRecord(record);
-            graph.merge(pubGraph);
+            this.translateRecord(record, graph);
         }
         return graph;
     }
 
+    /**
+     * Translate EndNote XML read from the stream, building only one record at a time as a JDOM element rather
+     * than a tree of the whole document. The translated records are passed to the writer in graphs of
+     * recordsPerGraph records, or in a single graph if recordsPerGraph is 0.
+     * @return the number of records read
+     */
+    public int translate(InputStream endnoteXML, GraphWriter writer, int recordsPerGraph) throws XMLStreamException, XSLTransformException, SQLException {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        final XMLStreamReader reader = factory.createXMLStreamReader(endnoteXML);
+        int recordCount = 0;
+        try {
+            Graph graph = new Graph();
+            int recordsInGraph = 0;
+            while (reader.hasNext()) {
+                if ((reader.next() == XMLStreamConstants.START_ELEMENT) && reader.getLocalName().equals("record")) {
+                    this.translateRecord(this.readElement(reader), graph);
+                    recordCount++;
+                    recordsInGraph++;
+                    LoadMetrics.count("publications.records");
+                    if ((recordsPerGraph > 0) && (recordsInGraph >= recordsPerGraph)) {
+                        writer.putGraph(graph);
+                        graph = new Graph();
+                        recordsInGraph = 0;
+                    }
+                }
+            }
+            if (recordsInGraph > 0) {
+                writer.putGraph(graph);
+            }
+        } finally {
+            reader.close();
+        }
+        return recordCount;
+    }
+
+    /**
+     * Build the element at which the reader is positioned, leaving the reader at its end tag.
+     */
+    private Element readElement(XMLStreamReader reader) throws XMLStreamException {
+        final Element element = new Element(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        while (true) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                element.addContent(this.readElement(reader));
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                element.addContent(new Text(reader.getText()));
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                return element;
+            }
+        }
+    }
+
     public Graph translateRecord(Element record) throws XSLTransformException {
         final Graph pubGraph = new Graph();
+        this.translateRecord(record, pubGraph);
+        return pubGraph;
+    }
+
+    /**
+     * Add the statements for the record to an existing graph.
+     */
+    public void translateRecord(Element record, Graph pubGraph) throws XSLTransformException {
         final Element accessionNumElement = record.getChild("accession-num");
         if (accessionNumElement != null) {
             final String pubID = accessionNumElement.getValue().trim();
@@ -71,7 +148,7 @@ public class OBDPublicationBridge {
             if (secondaryAuthorsElement != null) {
                 secondaryAuthors.addAll(this.parseAuthors(secondaryAuthorsElement));
             }
-            final XSLTransformer transformer = new XSLTransformer(new StringReader(ITALICS_XSLT));
+            final XSLTransformer transformer = this.getItalicsTransformer();
             final Format format = Format.getCompactFormat();
             format.setOmitDeclaration(true);
             final Element titleElement = record.getChild("titles").getChild("title");
@@ -119,7 +196,16 @@ public class OBDPublicationBridge {
         } else {
             log().error("Publication has no accession number, skipping record number: " + record.getChildText("rec-number"));
         }
-        return pubGraph;
+    }
+
+    /**
+     * The stylesheet is compiled once and reused for every record.
+     */
+    private XSLTransformer getItalicsTransformer() throws XSLTransformException {
+        if (this.italicsTransformer == null) {
+            this.italicsTransformer = new XSLTransformer(new StringReader(ITALICS_XSLT));
+        }
+        return this.italicsTransformer;
     }
 
     private List<Author> parseAuthors(Element authorsElement) {
@@ -1,6 +1,11 @@
 package org.phenoscape.obd.loader;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.obd.model.CompositionalDescription;
 import org.obd.model.LinkStatement;
@@ -15,23 +20,56 @@ import org.purl.obo.vocab.RelationVocabulary;
 
 public class OBDUtil {
     
+    /** The obo-class-cache-size system property may contain the maximum number of class translations kept by translateOBOClass. */
+    public static final String CLASS_CACHE_SIZE = "obo-class-cache-size";
     private static final RelationVocabulary vocab = new RelationVocabulary();
+    private static final Map<String, ClassTranslation> translations = Collections.synchronizedMap(new TranslationCache(Integer.getInteger(CLASS_CACHE_SIZE, 10000)));
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
 
+    /**
+     * Translate the class into a CompositionalDescription. Translations are cached by class ID, 
+     * and each call returns a new description which the caller is free to modify.
+     */
     public static CompositionalDescription translateOBOClass(OBOClass c) {
+        ClassTranslation translation = translations.get(c.getID());
+        if (translation != null) {
+            cacheHits.incrementAndGet();
+        } else {
+            cacheMisses.incrementAndGet();
+            translation = createTranslation(c);
+            translations.put(c.getID(), translation);
+        }
+        return translation.createDescription();
+    }
+
+    public static long getClassCacheHits() {
+        return cacheHits.get();
+    }
+
+    public static long getClassCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Discard all cached class translations.
+     */
+    static void clearClassCache() {
+        translations.clear();
+    }
+
+    private static ClassTranslation createTranslation(OBOClass c) {
         if (TermUtil.isIntersection(c)) {
-            final CompositionalDescription cd = new CompositionalDescription(Predicate.INTERSECTION);
-            cd.setId(c.getID());
-            final OBOClass g = ReasonerUtil.getGenus(c);
-            cd.addArgument(translateOBOClass(g));
-            final Collection<Link> diffs = ReasonerUtil.getDifferentia(c);
-            for (Link diff : diffs) {
-                cd.addArgument(diff.getType().getID(), translateOBOClass((OBOClass) diff.getParent()));
+            final ClassTranslation genus = createTranslation(ReasonerUtil.getGenus(c));
+            final List<String> relations = new ArrayList<String>();
+            final List<ClassTranslation> differentia = new ArrayList<ClassTranslation>();
+            for (Link diff : ReasonerUtil.getDifferentia(c)) {
+                relations.add(diff.getType().getID());
+                differentia.add(createTranslation((OBOClass) diff.getParent()));
             }
-            return cd;
+            return new ClassTranslation(c.getID(), genus, relations, differentia);
         } else {
-            final CompositionalDescription d = new CompositionalDescription(Predicate.ATOM);
-            d.setNodeId(c.getID());
-            return d;
+            return new ClassTranslation(c.getID(), null, Collections.<String>emptyList(), Collections.<ClassTranslation>emptyList());
         }
     }
     
@@ -47,4 +85,59 @@ public class OBDUtil {
         return n;
     }
     
+    /**
+     * The parts of a translated class, from which new descriptions are built. Instances are never modified once created.
+     */
+    private static class ClassTranslation {
+
+        private final String id;
+        private final ClassTranslation genus;
+        private final List<String> relations;
+        private final List<ClassTranslation> differentia;
+
+        public ClassTranslation(String id, ClassTranslation genus, List<String> relations, List<ClassTranslation> differentia) {
+            this.id = id;
+            this.genus = genus;
+            this.relations = relations;
+            this.differentia = differentia;
+        }
+
+        public CompositionalDescription createDescription() {
+            if (this.genus != null) {
+                final CompositionalDescription cd = new CompositionalDescription(Predicate.INTERSECTION);
+                cd.setId(this.id);
+                cd.addArgument(this.genus.createDescription());
+                for (int i = 0; i < this.relations.size(); i++) {
+                    cd.addArgument(this.relations.get(i), this.differentia.get(i).createDescription());
+                }
+                return cd;
+            } else {
+                final CompositionalDescription d = new CompositionalDescription(Predicate.ATOM);
+                d.setNodeId(this.id);
+                return d;
+            }
+        }
+
+    }
+
+    /**
+     * Keeps the most recently used translations, up to a maximum size.
+     */
+    private static class TranslationCache extends LinkedHashMap<String, ClassTranslation> {
+
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        public TranslationCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ClassTranslation> eldest) {
+            return this.size() > this.maxSize;
+        }
+
+    }
+    
 }
@@ -0,0 +1,119 @@
+package org.phenoscape.obd.loader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.obo.datamodel.Dbxref;
+import org.obo.datamodel.IdentifiedObject;
+import org.obo.datamodel.OBOClass;
+import org.obo.datamodel.OBOSession;
+import org.obo.datamodel.TermSubset;
+import org.obo.util.TermUtil;
+
+/**
+ * Lookups over the classes of an OBOSession, computed in a single pass over the session objects so that
+ * loaders don't each rescan the whole session. The index is not updated if the session changes.
+ */
+public class OntologyIndex {
+
+    private final OBOSession session;
+    private final Map<String, List<OBOClass>> classesByNamespace = new HashMap<String, List<OBOClass>>();
+    private final Map<String, List<OBOClass>> classesBySubset = new HashMap<String, List<OBOClass>>();
+    private final Map<String, String> alternateIDs = new HashMap<String, String>();
+    private final Map<String, Map<String, String>> dbxrefsByDatabase = new HashMap<String, Map<String, String>>();
+
+    public OntologyIndex(OBOSession session) {
+        this.session = session;
+        int classCount = 0;
+        for (IdentifiedObject object : session.getObjects()) {
+            if (object instanceof OBOClass) {
+                classCount++;
+                this.indexClass((OBOClass)object);
+            }
+        }
+        log().debug("Indexed " + classCount + " classes in " + this.classesByNamespace.size() + " namespaces");
+    }
+
+    private void indexClass(OBOClass term) {
+        if (term.getNamespace() != null) {
+            this.addToList(this.classesByNamespace, term.getNamespace().getID(), term);
+        }
+        for (TermSubset subset : term.getSubsets()) {
+            this.addToList(this.classesBySubset, subset.getName(), term);
+        }
+        if (term.getSecondaryIDs() != null) {
+            for (String altID : term.getSecondaryIDs()) {
+                this.alternateIDs.put(altID, term.getID());
+            }
+        }
+        if (!TermUtil.isObsolete(term)) {
+            for (Dbxref dbx : term.getDbxrefs()) {
+                final String database = dbx.getDatabase().toString();
+                Map<String, String> mappings = this.dbxrefsByDatabase.get(database);
+                if (mappings == null) {
+                    mappings = new HashMap<String, String>();
+                    this.dbxrefsByDatabase.put(database, mappings);
+                }
+                if (!mappings.containsKey(term.getID())) {
+                    mappings.put(term.getID(), database + ":" + dbx.getDatabaseID().toString());
+                }
+            }
+        }
+    }
+
+    private void addToList(Map<String, List<OBOClass>> index, String key, OBOClass term) {
+        List<OBOClass> terms = index.get(key);
+        if (terms == null) {
+            terms = new ArrayList<OBOClass>();
+            index.put(key, terms);
+        }
+        terms.add(term);
+    }
+
+    public OBOSession getSession() {
+        return this.session;
+    }
+
+    /**
+     * Return the classes in the namespace with the given ID, in session order.
+     */
+    public List<OBOClass> getClassesInNamespace(String namespace) {
+        return this.unmodifiable(this.classesByNamespace.get(namespace));
+    }
+
+    /**
+     * Return the classes in the subset with the given name, in session order.
+     */
+    public List<OBOClass> getClassesInSubset(String subset) {
+        return this.unmodifiable(this.classesBySubset.get(subset));
+    }
+
+    /**
+     * Return a map from each alternate ID to the primary ID of its class.
+     */
+    public Map<String, String> getAlternateIDMappings() {
+        return Collections.unmodifiableMap(this.alternateIDs);
+    }
+
+    /**
+     * Return a map from the ID of each non-obsolete class with a dbxref to the given database, to
+     * its first dbxref in that database, given as "DATABASE:ID".
+     */
+    public Map<String, String> getDbxrefMappings(String database) {
+        final Map<String, String> mappings = this.dbxrefsByDatabase.get(database);
+        return (mappings != null) ? Collections.unmodifiableMap(mappings) : Collections.<String, String>emptyMap();
+    }
+
+    private List<OBOClass> unmodifiable(List<OBOClass> terms) {
+        return (terms != null) ? Collections.unmodifiableList(terms) : Collections.<OBOClass>emptyList();
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
@@ -0,0 +1,223 @@
+package org.phenoscape.obd.loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.bbop.dataadapter.DataAdapterException;
+import org.obo.dataadapter.OBOAdapter;
+import org.obo.dataadapter.OBOFileAdapter;
+import org.obo.datamodel.OBOSession;
+
+/**
+ * Loads the ontologies found in the ontology-dir folder into an OBOSession shared by all loaders
+ * running in the same JVM. After the OBO files are parsed, the session is written to a snapshot
+ * file by OntologySnapshot, tagged with the paths, sizes and modification times of the files it was
+ * built from. Later runs restore the session from the snapshot as long as none of the ontology files
+ * has changed.
+ */
+public class OntologyLoader {
+
+    /** The ontology-dir system property should contain the path to a folder with ontologies to be loaded. */
+    public static final String ONTOLOGY_DIR = "ontology-dir";
+    /** The ontology-snapshot system property may contain the path of the file used to cache the parsed ontologies. Defaults to a file in the system temporary folder. */
+    public static final String ONTOLOGY_SNAPSHOT = "ontology-snapshot";
+    private static final int SNAPSHOT_FORMAT = 2;
+    private static OBOSession sharedSession;
+    private static OntologyIndex sharedIndex;
+
+    /**
+     * Return the session shared by all loaders, loading it on first use.
+     */
+    public static synchronized OBOSession getSession() {
+        if (sharedSession == null) {
+            sharedSession = new OntologyLoader().loadOBOSession();
+        }
+        return sharedSession;
+    }
+
+    /**
+     * Return an index over the shared session, building it on first use.
+     */
+    public static synchronized OntologyIndex getIndex() {
+        if (sharedIndex == null) {
+            sharedIndex = new OntologyIndex(getSession());
+        }
+        return sharedIndex;
+    }
+
+    public OBOSession loadOBOSession() {
+        final List<File> ontologyFiles = this.getOntologyFiles();
+        final String key = this.createSnapshotKey(ontologyFiles);
+        final File snapshot = this.getSnapshotFile();
+        if (snapshot.exists()) {
+            try {
+                final OBOSession session = this.readSnapshot(snapshot, key);
+                if (session != null) {
+                    log().info("Restored ontologies from snapshot " + snapshot);
+                    return session;
+                }
+                log().info("Ontology files have changed; rebuilding snapshot " + snapshot);
+            } catch (IOException e) {
+                log().warn("Failed reading ontology snapshot " + snapshot, e);
+            } catch (RuntimeException e) {
+                // a corrupt snapshot can refer to an object number out of range, or to an object of the wrong kind
+                log().warn("Failed reading ontology snapshot " + snapshot, e);
+            }
+        }
+        final OBOSession session = this.parseOntologies(ontologyFiles);
+        if (session != null) {
+            try {
+                this.writeSnapshot(session, snapshot, key);
+            } catch (IOException e) {
+                log().warn("Failed writing ontology snapshot " + snapshot, e);
+            }
+        }
+        return session;
+    }
+
+    OBOSession parseOntologies(List<File> ontologyFiles) {
+        final List<String> paths = new ArrayList<String>();
+        for (File f : ontologyFiles) {
+            paths.add(f.getAbsolutePath());
+        }
+        final OBOFileAdapter fileAdapter = new OBOFileAdapter();
+        OBOFileAdapter.OBOAdapterConfiguration config = new OBOFileAdapter.OBOAdapterConfiguration();
+        config.setReadPaths(paths);
+        config.setBasicSave(false);
+        config.setAllowDangling(true);
+        config.setFollowImports(false);
+        try {
+            return fileAdapter.doOperation(OBOAdapter.READ_ONTOLOGY, config, null);
+        } catch (DataAdapterException e) {
+            log().fatal("Failed to load ontologies", e);
+            return null;
+        }
+    }
+
+    private List<File> getOntologyFiles() {
+        final List<File> files = new ArrayList<File>();
+        File ontCache = new File(System.getProperty(ONTOLOGY_DIR));
+        for (File f : ontCache.listFiles()) {
+            files.add(f.getAbsoluteFile());
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private File getSnapshotFile() {
+        final String path = System.getProperty(ONTOLOGY_SNAPSHOT);
+        if (path != null) {
+            return new File(path);
+        } else {
+            return new File(System.getProperty("java.io.tmpdir"), "phenoscape-ontologies.snapshot");
+        }
+    }
+
+    private String createSnapshotKey(List<File> ontologyFiles) {
+        final StringBuffer sb = new StringBuffer();
+        for (File f : ontologyFiles) {
+            sb.append(f.getPath()).append("\t").append(f.length()).append("\t").append(f.lastModified()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Restore the session from the snapshot, or return null if the snapshot was built from different files.
+     */
+    private OBOSession readSnapshot(File snapshot, String key) throws IOException {
+        final FileInputStream fileStream = new FileInputStream(snapshot);
+        try {
+            final FileChannel channel = fileStream.getChannel();
+            final InputStream input;
+            if (channel.size() <= Integer.MAX_VALUE) {
+                input = new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } else {
+                input = new BufferedInputStream(fileStream, 1 << 16);
+            }
+            final DataInputStream header = new DataInputStream(input);
+            if ((header.readInt() != SNAPSHOT_FORMAT) || (!header.readUTF().equals(key))) {
+                return null;
+            }
+            return new OntologySnapshot().read(header);
+        } finally {
+            fileStream.close();
+        }
+    }
+
+    private void writeSnapshot(OBOSession session, File snapshot, String key) throws IOException {
+        final File temp = new File(snapshot.getPath() + ".tmp");
+        boolean written = false;
+        try {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+            try {
+                output.writeInt(SNAPSHOT_FORMAT);
+                output.writeUTF(key);
+                new OntologySnapshot().write(session, output);
+            } finally {
+                output.close();
+            }
+            snapshot.delete();
+            if (!temp.renameTo(snapshot)) {
+                throw new IOException("Unable to move " + temp + " to " + snapshot);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                temp.delete();
+            }
+        }
+        log().info("Wrote ontology snapshot " + snapshot);
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+    /**
+     * Reads from a memory-mapped snapshot file.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? (this.buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, this.buffer.remaining());
+            this.buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,376 @@
+package org.phenoscape.obd.loader;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.obo.datamodel.AnnotatedObject;
+import org.obo.datamodel.DanglingObject;
+import org.obo.datamodel.Dbxref;
+import org.obo.datamodel.IdentifiedObject;
+import org.obo.datamodel.Link;
+import org.obo.datamodel.LinkedObject;
+import org.obo.datamodel.Namespace;
+import org.obo.datamodel.OBOClass;
+import org.obo.datamodel.OBOProperty;
+import org.obo.datamodel.OBORestriction;
+import org.obo.datamodel.OBOSession;
+import org.obo.datamodel.ObjectFactory;
+import org.obo.datamodel.ObsoletableObject;
+import org.obo.datamodel.Synonym;
+import org.obo.datamodel.SynonymType;
+import org.obo.datamodel.TermSubset;
+import org.obo.datamodel.impl.DefaultObjectFactory;
+
+/**
+ * Writes the contents of an OBOSession in a compact binary layout, and rebuilds a session from it. The session
+ * classes can't be written with Java serialization, since a session holds its editing history and operation
+ * model. Only what the loaders read is kept: the namespaces, subsets and synonym types of the session, and for
+ * each class and property its name, namespace, definition, comment, obsolescence, alternate IDs, dbxrefs,
+ * synonyms and subsets, along with the links between them. Built-in objects are recreated by the new session
+ * and only referred to. Objects are numbered in session order, and links refer to their ends by number.
+ */
+public class OntologySnapshot {
+
+    private static final byte BUILTIN = 0;
+    private static final byte CLASS = 1;
+    private static final byte PROPERTY = 2;
+    private static final byte DANGLING_CLASS = 3;
+    private static final byte DANGLING_PROPERTY = 4;
+
+    public void write(OBOSession session, DataOutput output) throws IOException {
+        output.writeInt(session.getNamespaces().size());
+        for (Namespace namespace : session.getNamespaces()) {
+            this.writeString(output, namespace.getID());
+            this.writeString(output, namespace.getPath());
+        }
+        this.writeNamespace(output, session.getDefaultNamespace());
+        output.writeInt(session.getSubsets().size());
+        for (TermSubset subset : session.getSubsets()) {
+            this.writeString(output, subset.getName());
+            this.writeString(output, subset.getDesc());
+        }
+        output.writeInt(session.getSynonymTypes().size());
+        for (SynonymType type : session.getSynonymTypes()) {
+            this.writeString(output, type.getID());
+            this.writeString(output, type.getName());
+            output.writeInt(type.getScope());
+        }
+        final Collection<IdentifiedObject> objects = session.getObjects();
+        final Map<String, Integer> numbers = new HashMap<String, Integer>();
+        final List<Link> links = new ArrayList<Link>();
+        final List<ObsoletableObject> obsoletes = new ArrayList<ObsoletableObject>();
+        output.writeInt(objects.size());
+        for (IdentifiedObject object : objects) {
+            numbers.put(object.getID(), numbers.size());
+            if (object.isBuiltIn()) {
+                output.writeByte(BUILTIN);
+                this.writeString(output, object.getID());
+                continue;
+            }
+            if (object instanceof DanglingObject) {
+                output.writeByte((object instanceof OBOProperty) ? DANGLING_PROPERTY : DANGLING_CLASS);
+                this.writeString(output, object.getID());
+            } else if (object instanceof OBOClass) {
+                output.writeByte(CLASS);
+                this.writeAnnotatedObject(output, (OBOClass)object);
+            } else if (object instanceof OBOProperty) {
+                final OBOProperty property = (OBOProperty)object;
+                output.writeByte(PROPERTY);
+                this.writeAnnotatedObject(output, property);
+                output.writeBoolean(property.isTransitive());
+                output.writeBoolean(property.isSymmetric());
+                output.writeBoolean(property.isReflexive());
+                output.writeBoolean(property.isCyclic());
+                output.writeBoolean(property.isAlwaysImpliesInverse());
+                output.writeBoolean(property.isMetadataTag());
+            } else {
+                throw new IOException("Unable to snapshot " + object.getClass().getSimpleName() + " " + object.getID());
+            }
+            for (Link link : ((LinkedObject)object).getParents()) {
+                if (!link.isImplied()) {
+                    links.add(link);
+                }
+            }
+            if ((object instanceof ObsoletableObject) && (((ObsoletableObject)object).isObsolete())) {
+                obsoletes.add((ObsoletableObject)object);
+            }
+        }
+        output.writeInt(links.size());
+        for (Link link : links) {
+            output.writeInt(this.getNumber(numbers, link.getChild()));
+            output.writeInt(this.getNumber(numbers, link.getType()));
+            output.writeInt(this.getNumber(numbers, link.getParent()));
+            this.writeNamespace(output, link.getNamespace());
+            final boolean restriction = link instanceof OBORestriction;
+            output.writeBoolean(restriction);
+            if (restriction) {
+                final OBORestriction r = (OBORestriction)link;
+                output.writeBoolean(r.completes());
+                output.writeBoolean(r.inverseCompletes());
+                output.writeBoolean(r.isNecessarilyTrue());
+                output.writeBoolean(r.isInverseNecessarilyTrue());
+                this.writeInteger(output, r.getCardinality());
+                this.writeInteger(output, r.getMinCardinality());
+                this.writeInteger(output, r.getMaxCardinality());
+            }
+        }
+        output.writeInt(obsoletes.size());
+        for (ObsoletableObject obsolete : obsoletes) {
+            output.writeInt(this.getNumber(numbers, obsolete));
+            output.writeInt(obsolete.getReplacedBy().size());
+            for (ObsoletableObject replacement : obsolete.getReplacedBy()) {
+                output.writeInt(this.getNumber(numbers, replacement));
+            }
+            output.writeInt(obsolete.getConsiderReplacements().size());
+            for (ObsoletableObject replacement : obsolete.getConsiderReplacements()) {
+                output.writeInt(this.getNumber(numbers, replacement));
+            }
+        }
+    }
+
+    public OBOSession read(DataInput input) throws IOException {
+        final ObjectFactory factory = DefaultObjectFactory.getFactory();
+        final OBOSession session = factory.createSession();
+        final Map<String, Namespace> namespaces = new HashMap<String, Namespace>();
+        final int namespaceCount = input.readInt();
+        for (int i = 0; i < namespaceCount; i++) {
+            final Namespace namespace = factory.createNamespace(this.readString(input), this.readString(input));
+            session.addNamespace(namespace);
+            namespaces.put(namespace.getID(), namespace);
+        }
+        session.setDefaultNamespace(this.readNamespace(input, namespaces, factory));
+        final Map<String, TermSubset> subsets = new HashMap<String, TermSubset>();
+        final int subsetCount = input.readInt();
+        for (int i = 0; i < subsetCount; i++) {
+            final TermSubset subset = factory.createSubset(this.readString(input), this.readString(input));
+            session.addSubset(subset);
+            subsets.put(subset.getName(), subset);
+        }
+        final Map<String, SynonymType> synonymTypes = new HashMap<String, SynonymType>();
+        final int synonymTypeCount = input.readInt();
+        for (int i = 0; i < synonymTypeCount; i++) {
+            final SynonymType type = factory.createSynonymType(this.readString(input), this.readString(input), input.readInt());
+            session.addSynonymType(type);
+            synonymTypes.put(type.getID(), type);
+        }
+        final IdentifiedObject[] objects = new IdentifiedObject[input.readInt()];
+        for (int i = 0; i < objects.length; i++) {
+            final byte kind = input.readByte();
+            if (kind == BUILTIN) {
+                final String id = this.readString(input);
+                objects[i] = session.getObject(id);
+                if (objects[i] == null) {
+                    throw new IOException("Snapshot refers to unknown built-in object " + id);
+                }
+                continue;
+            }
+            if ((kind == DANGLING_CLASS) || (kind == DANGLING_PROPERTY)) {
+                objects[i] = factory.createDanglingObject(this.readString(input), kind == DANGLING_PROPERTY);
+            } else if (kind == CLASS) {
+                objects[i] = this.readAnnotatedObject(input, OBOClass.OBO_CLASS, factory, namespaces, subsets, synonymTypes);
+            } else if (kind == PROPERTY) {
+                final OBOProperty property = (OBOProperty)this.readAnnotatedObject(input, OBOClass.OBO_PROPERTY, factory, namespaces, subsets, synonymTypes);
+                property.setTransitive(input.readBoolean());
+                property.setSymmetric(input.readBoolean());
+                property.setReflexive(input.readBoolean());
+                property.setCyclic(input.readBoolean());
+                property.setAlwaysImpliesInverse(input.readBoolean());
+                property.setMetadataTag(input.readBoolean());
+                objects[i] = property;
+            } else {
+                throw new IOException("Unknown object kind " + kind + " in snapshot");
+            }
+            session.addObject(objects[i]);
+        }
+        final int linkCount = input.readInt();
+        for (int i = 0; i < linkCount; i++) {
+            final LinkedObject child = (LinkedObject)objects[input.readInt()];
+            final OBOProperty type = (OBOProperty)objects[input.readInt()];
+            final LinkedObject parent = (LinkedObject)objects[input.readInt()];
+            final OBORestriction link = factory.createOBORestriction(child, type, parent, false);
+            link.setNamespace(this.readNamespace(input, namespaces, factory));
+            if (input.readBoolean()) {
+                link.setCompletes(input.readBoolean());
+                link.setInverseCompletes(input.readBoolean());
+                link.setNecessarilyTrue(input.readBoolean());
+                link.setInverseNecessarilyTrue(input.readBoolean());
+                link.setCardinality(this.readInteger(input));
+                link.setMinCardinality(this.readInteger(input));
+                link.setMaxCardinality(this.readInteger(input));
+            }
+            child.addParent(link);
+        }
+        final int obsoleteCount = input.readInt();
+        for (int i = 0; i < obsoleteCount; i++) {
+            final ObsoletableObject obsolete = (ObsoletableObject)objects[input.readInt()];
+            final int replacedByCount = input.readInt();
+            for (int j = 0; j < replacedByCount; j++) {
+                obsolete.addReplacedBy((ObsoletableObject)objects[input.readInt()]);
+            }
+            final int considerCount = input.readInt();
+            for (int j = 0; j < considerCount; j++) {
+                obsolete.addConsiderReplacement((ObsoletableObject)objects[input.readInt()]);
+            }
+        }
+        return session;
+    }
+
+    private void writeAnnotatedObject(DataOutput output, AnnotatedObject object) throws IOException {
+        this.writeString(output, object.getID());
+        output.writeBoolean(object.isAnonymous());
+        this.writeString(output, object.getName());
+        this.writeNamespace(output, object.getNamespace());
+        this.writeString(output, object.getDefinition());
+        this.writeDbxrefs(output, object.getDefDbxrefs());
+        this.writeString(output, object.getComment());
+        output.writeBoolean(object.isObsolete());
+        output.writeInt(object.getSecondaryIDs().size());
+        for (String secondaryID : object.getSecondaryIDs()) {
+            this.writeString(output, secondaryID);
+        }
+        this.writeDbxrefs(output, object.getDbxrefs());
+        output.writeInt(object.getSynonyms().size());
+        for (Synonym synonym : object.getSynonyms()) {
+            this.writeString(output, synonym.getText());
+            output.writeInt(synonym.getScope());
+            this.writeString(output, (synonym.getSynonymType() != null) ? synonym.getSynonymType().getID() : null);
+            this.writeDbxrefs(output, synonym.getXrefs());
+        }
+        output.writeInt(object.getSubsets().size());
+        for (TermSubset subset : object.getSubsets()) {
+            this.writeString(output, subset.getName());
+        }
+    }
+
+    private AnnotatedObject readAnnotatedObject(DataInput input, OBOClass kind, ObjectFactory factory, Map<String, Namespace> namespaces, Map<String, TermSubset> subsets, Map<String, SynonymType> synonymTypes) throws IOException {
+        final String id = this.readString(input);
+        final AnnotatedObject object = (AnnotatedObject)factory.createObject(id, kind, input.readBoolean());
+        object.setName(this.readString(input));
+        object.setNamespace(this.readNamespace(input, namespaces, factory));
+        object.setDefinition(this.readString(input));
+        for (Dbxref dbxref : this.readDbxrefs(input, factory)) {
+            object.addDefDbxref(dbxref);
+        }
+        object.setComment(this.readString(input));
+        object.setObsolete(input.readBoolean());
+        final int secondaryIDCount = input.readInt();
+        for (int i = 0; i < secondaryIDCount; i++) {
+            object.addSecondaryID(this.readString(input));
+        }
+        for (Dbxref dbxref : this.readDbxrefs(input, factory)) {
+            object.addDbxref(dbxref);
+        }
+        final int synonymCount = input.readInt();
+        for (int i = 0; i < synonymCount; i++) {
+            final Synonym synonym = factory.createSynonym(this.readString(input), input.readInt());
+            final String typeID = this.readString(input);
+            if (typeID != null) {
+                synonym.setSynonymType(synonymTypes.get(typeID));
+            }
+            for (Dbxref dbxref : this.readDbxrefs(input, factory)) {
+                synonym.addXref(dbxref);
+            }
+            object.addSynonym(synonym);
+        }
+        final int subsetCount = input.readInt();
+        for (int i = 0; i < subsetCount; i++) {
+            final String name = this.readString(input);
+            TermSubset subset = subsets.get(name);
+            if (subset == null) {
+                // a subset used by a term without being declared in the file header
+                subset = factory.createSubset(name, null);
+                subsets.put(name, subset);
+            }
+            object.addCategory(subset);
+        }
+        return object;
+    }
+
+    private void writeDbxrefs(DataOutput output, Collection<Dbxref> dbxrefs) throws IOException {
+        output.writeInt(dbxrefs.size());
+        for (Dbxref dbxref : dbxrefs) {
+            this.writeString(output, dbxref.getDatabase());
+            this.writeString(output, dbxref.getDatabaseID());
+            this.writeString(output, dbxref.getDesc());
+            output.writeInt(dbxref.getType());
+        }
+    }
+
+    private List<Dbxref> readDbxrefs(DataInput input, ObjectFactory factory) throws IOException {
+        final int count = input.readInt();
+        final List<Dbxref> dbxrefs = new ArrayList<Dbxref>(count);
+        for (int i = 0; i < count; i++) {
+            dbxrefs.add(factory.createDbxref(this.readString(input), this.readString(input), this.readString(input), input.readInt(), null));
+        }
+        return dbxrefs;
+    }
+
+    private void writeNamespace(DataOutput output, Namespace namespace) throws IOException {
+        this.writeString(output, (namespace != null) ? namespace.getID() : null);
+    }
+
+    /**
+     * Namespaces are shared by ID. One which the session doesn't list is created without being added to it.
+     */
+    private Namespace readNamespace(DataInput input, Map<String, Namespace> namespaces, ObjectFactory factory) throws IOException {
+        final String id = this.readString(input);
+        if (id == null) {
+            return null;
+        }
+        Namespace namespace = namespaces.get(id);
+        if (namespace == null) {
+            namespace = factory.createNamespace(id, null);
+            namespaces.put(id, namespace);
+        }
+        return namespace;
+    }
+
+    private int getNumber(Map<String, Integer> numbers, IdentifiedObject object) throws IOException {
+        final Integer number = numbers.get(object.getID());
+        if (number == null) {
+            throw new IOException("Unable to snapshot a reference to " + object.getID() + ", which is not in the session");
+        }
+        return number;
+    }
+
+    /**
+     * Strings are written as a length and UTF-8 bytes, since writeUTF is limited to 64K and can't write null.
+     */
+    private void writeString(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes("UTF-8");
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private String readString(DataInput input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private void writeInteger(DataOutput output, Integer value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeInt(value);
+        }
+    }
+
+    private Integer readInteger(DataInput input) throws IOException {
+        return input.readBoolean() ? Integer.valueOf(input.readInt()) : null;
+    }
+
+}
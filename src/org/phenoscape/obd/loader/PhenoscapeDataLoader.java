@@ -5,15 +5,18 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.apache.xmlbeans.XmlException;
-import org.bbop.dataadapter.DataAdapterException;
 import org.obd.model.Graph;
 import org.obd.query.Shard;
 import org.obd.query.impl.OBDSQLShard;
-import org.obo.dataadapter.OBOAdapter;
-import org.obo.dataadapter.OBOFileAdapter;
 import org.obo.datamodel.OBOSession;
 import org.phenoscape.io.NeXMLReader;
 import org.phenoscape.io.nexml_1_0.NeXMLReader_1_0;
@@ -31,18 +34,57 @@ public class PhenoscapeDataLoader {
     public static final String DB_PASSWORD = "db-password";
     /** The ontology-dir system property should contain the path to a folder with ontologies to be loaded. */
     public static final String ONTOLOGY_DIR = "ontology-dir";
+    /** The loader-threads system property may contain the number of threads used to parse and translate data files. Files are processed sequentially if unset. */
+    public static final String LOADER_THREADS = "loader-threads";
+    /** The writer-connections system property may contain the number of database connections used to store translated graphs when loading in parallel. */
+    public static final String WRITER_CONNECTIONS = "writer-connections";
 
     private Shard shard;
+    private GraphWriter writer;
     private OBOSession session;
+    private LoadCheckpoint checkpoint;
+    private final AtomicInteger filesLoaded = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+    private final AtomicInteger filesSkipped = new AtomicInteger();
+    private final AtomicInteger recordsAdded = new AtomicInteger();
 
     public PhenoscapeDataLoader() throws SQLException, ClassNotFoundException {
         this.shard = this.initializeShard();
-        this.session = this.loadOBOSession();
+        this.writer = GraphWriterFactory.createGraphWriter(this.shard);
+        this.session = OntologyLoader.getSession();
     }
 
-    public static void main(String[] args) throws SQLException, ClassNotFoundException {
+    public static void main(String[] args) throws SQLException, ClassNotFoundException, InterruptedException, IOException {
+        final String[] remainingArgs = LoadCheckpoint.parseArguments(args);
         PhenoscapeDataLoader pdl = new PhenoscapeDataLoader();
-        pdl.processDataFolder(new File(args[0]));
+        pdl.loadDataFolder(new File(remainingArgs[0]));
+    }
+
+    /**
+     * Load all data files below the given folder, in parallel if the loader-threads system property is greater than one.
+     * Each file stored is recorded in the checkpoint with a hash of its content; when resuming, files recorded 
+     * with an unchanged hash are skipped. The checkpoint is saved after every batch of files, so a few files
+     * stored just before a failure may be loaded again.
+     */
+    public void loadDataFolder(File folder) throws SQLException, ClassNotFoundException, InterruptedException, IOException {
+        try {
+            this.checkpoint = LoadCheckpoint.open("phenoscape-data");
+            final int loaderThreads = Integer.getInteger(LOADER_THREADS, 1);
+            if (loaderThreads > 1) {
+                this.processDataFolderInParallel(folder, loaderThreads, Integer.getInteger(WRITER_CONNECTIONS, 1));
+            } else {
+                this.processDataFolder(folder);
+            }
+        } finally {
+            try {
+                if (this.checkpoint != null) {
+                    this.checkpoint.flush();
+                }
+            } finally {
+                this.shard.disconnect();
+            }
+        }
+        this.logSummary();
     }
 
     private void processDataFolder(File folder) {
@@ -51,18 +93,119 @@ public class PhenoscapeDataLoader {
                 this.processDataFolder(file);
             } else if (file.getName().endsWith(".xml")) {
                 try {
+                    if (this.isAlreadyLoaded(file)) {
+                        continue;
+                    }
                     this.processDataFile(file);
                 } catch (XmlException e) {
+                    this.filesFailed.incrementAndGet();
                     log().error("Failed parsing " + file, e);
                 } catch (IOException e) {
+                    this.filesFailed.incrementAndGet();
                     log().error("Failed reading " + file, e);
-                }                
+                } catch (SQLException e) {
+                    this.filesFailed.incrementAndGet();
+                    log().error("Failed storing " + file, e);
+                } catch (RuntimeException e) {
+                    this.filesFailed.incrementAndGet();
+                    log().error("Failed translating " + file, e);
+                }
             }
         }
     }
 
-    private void processDataFile(File file) throws IOException, XmlException {
+    private void processDataFile(File file) throws IOException, XmlException, SQLException {
+        final Graph g = this.translateDataFile(file);
+        this.storeGraph(file, g, this.writer);
+    }
+
+    /**
+     * Parse and translate all data files below the given folder using a pool of worker threads. 
+     * Translated graphs are handed through a bounded queue to writer threads, each of which stores 
+     * graphs using its own database connection.
+     */
+    private void processDataFolderInParallel(File folder, int loaderThreads, int writerConnections) throws SQLException, ClassNotFoundException, InterruptedException, IOException {
+        final List<File> files = new ArrayList<File>();
+        this.collectDataFiles(folder, files);
+        log().info("Loading " + files.size() + " files using " + loaderThreads + " threads and " + writerConnections + " writer connections");
+        if (writerConnections > ConnectionPool.getSharedPool().getMaxSize()) {
+            throw new IllegalArgumentException("The " + WRITER_CONNECTIONS + " property (" + writerConnections + ") is larger than the connection pool (see " + ConnectionPool.POOL_SIZE + ")");
+        }
+        final BlockingQueue<TranslatedFile> translatedFiles = new ArrayBlockingQueue<TranslatedFile>(writerConnections * 2);
+        final List<Shard> writerShards = new ArrayList<Shard>();
+        final List<Thread> writers = new ArrayList<Thread>();
+        try {
+            for (int i = 0; i < writerConnections; i++) {
+                final Shard writerShard = (i == 0) ? this.shard : this.initializeShard();
+                writerShards.add(writerShard);
+                final GraphWriter graphWriter = (i == 0) ? this.writer : GraphWriterFactory.createGraphWriter(writerShard);
+                final Thread writer = new Thread(new GraphWriterTask(graphWriter, translatedFiles), "graph-writer-" + i);
+                writers.add(writer);
+                writer.start();
+            }
+            final ExecutorService workers = Executors.newFixedThreadPool(loaderThreads);
+            for (final File file : files) {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            translatedFiles.put(new TranslatedFile(file, translateDataFile(file)));
+                        } catch (XmlException e) {
+                            filesFailed.incrementAndGet();
+                            log().error("Failed parsing " + file, e);
+                        } catch (IOException e) {
+                            filesFailed.incrementAndGet();
+                            log().error("Failed reading " + file, e);
+                        } catch (RuntimeException e) {
+                            filesFailed.incrementAndGet();
+                            log().error("Failed translating " + file, e);
+                        } catch (InterruptedException e) {
+                            filesFailed.incrementAndGet();
+                            log().error("Interrupted while queueing " + file, e);
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            for (int i = 0; i < writers.size(); i++) {
+                translatedFiles.put(TranslatedFile.END);
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        } finally {
+            for (Shard writerShard : writerShards) {
+                if (writerShard != this.shard) {
+                    writerShard.disconnect();
+                }
+            }
+        }
+    }
+
+    private void collectDataFiles(File folder, List<File> files) throws IOException {
+        for (File file : folder.listFiles()) {
+            if (file.isDirectory()) {
+                this.collectDataFiles(file, files);
+            } else if (file.getName().endsWith(".xml") && !this.isAlreadyLoaded(file)) {
+                files.add(file);
+            }
+        }
+    }
+
+    private boolean isAlreadyLoaded(File file) throws IOException {
+        final String hash = this.checkpoint.get(file.getAbsolutePath());
+        if ((hash != null) && hash.equals(LoadCheckpoint.hashFile(file))) {
+            this.filesSkipped.incrementAndGet();
+            log().info("Skipping " + file.getAbsolutePath() + "; already loaded according to checkpoint");
+            return true;
+        }
+        return false;
+    }
+
+    private Graph translateDataFile(File file) throws IOException, XmlException {
         log().info("Started work with " + file.getAbsolutePath());
+        final LoadMetrics.Timer parseTimer = LoadMetrics.start("data.parse");
         DataSet ds ;
         try {
             NeXMLReader_1_0 reader = new NeXMLReader_1_0(file, this.session);
@@ -71,41 +214,35 @@ public class PhenoscapeDataLoader {
             NeXMLReader reader = new NeXMLReader(file, this.session);
             ds = reader.getDataSet();
         }
+        parseTimer.stop();
         final OBDModelBridge bridge = new OBDModelBridge();
         log().info("Beginning graph construction");
-        final Graph g = bridge.translate(ds);
-        log().info("Putting graph into database");
-        this.shard.putGraph(g);
-        log().info(g.getStatements().size() + " records added");
+        final LoadMetrics.Timer translateTimer = LoadMetrics.start("data.translate");
+        final Graph graph = bridge.translate(ds);
+        translateTimer.stop();
+        return graph;
     }
 
-    private OBOSession loadOBOSession() {
-        final OBOFileAdapter fileAdapter = new OBOFileAdapter();
-        OBOFileAdapter.OBOAdapterConfiguration config = new OBOFileAdapter.OBOAdapterConfiguration();
-        config.setReadPaths(this.getOntologyPaths());
-        config.setBasicSave(false);
-        config.setAllowDangling(true);
-        config.setFollowImports(false);
-        try {
-            return fileAdapter.doOperation(OBOAdapter.READ_ONTOLOGY, config, null);
-        } catch (DataAdapterException e) {
-            log().fatal("Failed to load ontologies", e);
-            return null;
-        }
+    private void storeGraph(File file, Graph g, GraphWriter destination) throws SQLException, IOException {
+        log().info("Putting graph into database for " + file.getAbsolutePath());
+        destination.putGraph(g);
+        this.checkpoint.updateDeferred(file.getAbsolutePath(), LoadCheckpoint.hashFile(file));
+        final int records = g.getStatements().size();
+        this.recordsAdded.addAndGet(records);
+        this.filesLoaded.incrementAndGet();
+        LoadMetrics.count("data.files");
+        log().info(records + " records added");
     }
 
-    private List<String> getOntologyPaths() {
-        List<String> paths = new ArrayList<String>();
-        File ontCache = new File(System.getProperty(ONTOLOGY_DIR));
-        for (File f : ontCache.listFiles()) {
-            paths.add(f.getAbsolutePath());
-        }
-        return paths;
+    private void logSummary() {
+        log().info("Loaded " + this.filesLoaded.get() + " files (" + this.filesFailed.get() + " failed, " + this.filesSkipped.get() + " skipped); " + this.recordsAdded.get() + " records added");
+        log().info("Class translation cache: " + OBDUtil.getClassCacheHits() + " hits, " + OBDUtil.getClassCacheMisses() + " misses");
+        ConnectionPool.getSharedPool().logStatistics();
+        LoadMetrics.logSummary();
     }
 
     private Shard initializeShard() throws SQLException, ClassNotFoundException {
-        OBDSQLShard obdsql = new OBDSQLShard();
-        obdsql.connect("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        final OBDSQLShard obdsql = ConnectionPool.createShard();
         return obdsql;
     }
 
@@ -113,4 +250,62 @@ public class PhenoscapeDataLoader {
         return Logger.getLogger(this.getClass());
     }
 
+    private static class TranslatedFile {
+
+        /** Marker telling a writer thread that no more graphs will arrive. */
+        public static final TranslatedFile END = new TranslatedFile(null, null);
+
+        private final File file;
+        private final Graph graph;
+
+        public TranslatedFile(File file, Graph graph) {
+            this.file = file;
+            this.graph = graph;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        public Graph getGraph() {
+            return this.graph;
+        }
+
+    }
+
+    private class GraphWriterTask implements Runnable {
+
+        private final GraphWriter destination;
+        private final BlockingQueue<TranslatedFile> queue;
+
+        public GraphWriterTask(GraphWriter destination, BlockingQueue<TranslatedFile> queue) {
+            this.destination = destination;
+            this.queue = queue;
+        }
+
+        public void run() {
+            try {
+                TranslatedFile translated;
+                while ((translated = this.queue.take()) != TranslatedFile.END) {
+                    try {
+                        storeGraph(translated.getFile(), translated.getGraph(), this.destination);
+                    } catch (SQLException e) {
+                        filesFailed.incrementAndGet();
+                        log().error("Failed storing " + translated.getFile(), e);
+                    } catch (IOException e) {
+                        filesFailed.incrementAndGet();
+                        log().error("Failed recording checkpoint for " + translated.getFile(), e);
+                    } catch (RuntimeException e) {
+                        filesFailed.incrementAndGet();
+                        log().error("Failed storing " + translated.getFile(), e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                log().error("Graph writer interrupted", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,20 @@
+package org.phenoscape.obd.loader;
+
+import java.sql.Connection;
+
+import org.obd.query.impl.OBDSQLShard;
+import org.obo.dataadapter.OBDSQLDatabaseAdapter;
+
+/**
+ * An OBDSQLShard which can be connected using an already open connection, such as one from the
+ * ConnectionPool, instead of opening its own. Disconnecting the shard closes the connection.
+ */
+public class PooledOBDSQLShard extends OBDSQLShard {
+
+    public void connect(Connection connection) {
+        this.obd = new OBDSQLDatabaseAdapter();
+        this.obd.setConfiguration(this.obdconfig);
+        this.obd.setConnection(connection);
+    }
+
+}
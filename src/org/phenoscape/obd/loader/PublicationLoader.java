@@ -2,14 +2,17 @@ package org.phenoscape.obd.loader;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.SQLException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 
+import org.apache.log4j.Logger;
 import org.jdom.transform.XSLTransformException;
 import org.obd.model.Graph;
 import org.obd.query.impl.OBDSQLShard;
@@ -28,17 +31,44 @@ public class PublicationLoader {
     public static final String DB_PASSWORD = "db-password";
     /** The ontology-dir system property should contain the path to a folder with ontologies to be loaded. */
     public static final String PUBLICATION_DIR = "publication-dir";    
+    /** The publication-parser system property may contain "stream" to read EndNote records one at a time, or "dom" to parse the whole file into a document first. Defaults to "stream". */
+    public static final String PUBLICATION_PARSER = "publication-parser";
+    /** The publication-chunk-size system property may contain the number of streamed records to accumulate before writing them to the database, or 0 to write them all at once. */
+    public static final String CHUNK_SIZE = "publication-chunk-size";
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
 	
-	public static void main(String[] args) throws ParserConfigurationException, SAXException, IOException, SQLException, ClassNotFoundException, XSLTransformException, TransformerFactoryConfigurationError, TransformerException {
-	    final DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-        final DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-        final Document xmlDoc = docBuilder.parse(new File(System.getProperty(PUBLICATION_DIR)));
+	public static void main(String[] args) throws ParserConfigurationException, SAXException, IOException, SQLException, ClassNotFoundException, XSLTransformException, TransformerFactoryConfigurationError, TransformerException, XMLStreamException {
+        final File publicationFile = new File(System.getProperty(PUBLICATION_DIR));
         final OBDPublicationBridge bridge = new OBDPublicationBridge();
-        final Graph graph = bridge.translate(xmlDoc);
-        final OBDSQLShard shard = new OBDSQLShard();
-        shard.connect("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
-        shard.putGraph(graph);
-        shard.disconnect();
+        final OBDSQLShard shard = ConnectionPool.createShard();
+        try {
+            final GraphWriter writer = GraphWriterFactory.createGraphWriter(shard);
+            final String parser = System.getProperty(PUBLICATION_PARSER, "stream");
+            if (parser.equals("dom")) {
+                final DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+                final DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
+                final Document xmlDoc = docBuilder.parse(publicationFile);
+                final Graph graph = bridge.translate(xmlDoc);
+                writer.putGraph(graph);
+            } else {
+                if (!parser.equals("stream")) {
+                    log().warn("Unknown publication parser \"" + parser + "\"; streaming records");
+                }
+                final InputStream input = InputReaderFactory.createInputStream(publicationFile.toURI().toURL());
+                try {
+                    final int records = bridge.translate(input, writer, Integer.getInteger(CHUNK_SIZE, DEFAULT_CHUNK_SIZE));
+                    log().info("Loaded " + records + " publication records");
+                } finally {
+                    input.close();
+                }
+            }
+        } finally {
+            shard.disconnect();
+        }
 	}
 
+    private static Logger log() {
+        return Logger.getLogger(PublicationLoader.class);
+    }
+
 }
@@ -0,0 +1,60 @@
+package org.phenoscape.obd.loader;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A copy of the column values in the current row of a ResultSet. Unlike the ResultSet,
+ * a ResultRow stays valid after the cursor moves on and can be handed to another thread.
+ */
+public class ResultRow {
+
+    private final Map<String, Object> values;
+
+    public ResultRow(ResultSet result) throws SQLException {
+        final ResultSetMetaData metadata = result.getMetaData();
+        this.values = new HashMap<String, Object>();
+        for (int i = 1; i <= metadata.getColumnCount(); i++) {
+            final String column = metadata.getColumnLabel(i);
+            // like ResultSet, return the first column when a label is repeated
+            if (!this.values.containsKey(column)) {
+                this.values.put(column, result.getObject(i));
+            }
+        }
+    }
+
+    public ResultRow(Map<String, Object> values) {
+        this.values = values;
+    }
+
+    /**
+     * Return the column value as text. Booleans are returned as "t" or "f", as the PostgreSQL driver does.
+     */
+    public String getString(String column) {
+        final Object value = this.values.get(column);
+        if (value instanceof Boolean) {
+            return ((Boolean)value).booleanValue() ? "t" : "f";
+        }
+        return (value != null) ? value.toString() : null;
+    }
+
+    /**
+     * Return the column value as an int, or 0 if it is null, as ResultSet does.
+     */
+    public int getInt(String column) {
+        final Object value = this.values.get(column);
+        return (value != null) ? ((Number)value).intValue() : 0;
+    }
+
+    /**
+     * Return the column value as a boolean, or false if it is null, as ResultSet does.
+     */
+    public boolean getBoolean(String column) {
+        final Object value = this.values.get(column);
+        return (value != null) ? ((Boolean)value).booleanValue() : false;
+    }
+
+}
@@ -0,0 +1,24 @@
+package org.phenoscape.obd.loader;
+
+import org.obd.model.Graph;
+import org.obd.query.Shard;
+
+/**
+ * Stores graphs using Shard.putGraph, one database call for each node and statement.
+ */
+public class ShardGraphWriter implements GraphWriter {
+
+    private final Shard shard;
+
+    public ShardGraphWriter(Shard shard) {
+        this.shard = shard;
+    }
+
+    public void putGraph(Graph graph) {
+        final LoadMetrics.Timer timer = LoadMetrics.start("db.write");
+        this.shard.putGraph(graph);
+        timer.stop();
+        LoadMetrics.count("db.statements", graph.getStatements().size());
+    }
+
+}
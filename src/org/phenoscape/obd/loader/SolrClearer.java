@@ -17,9 +17,15 @@ public class SolrClearer {
     }
 
     public void clearSolrIndex() throws SolrServerException, IOException {
+        // a resumed build must not clear documents already indexed by the loaders that follow
+        final LoadCheckpoint checkpoint = LoadCheckpoint.open("solr-clear");
+        if (checkpoint.isComplete()) {
+            return;
+        }
         this.solr = this.getSolrServer();
         this.solr.deleteByQuery("*:*");
         this.solr.commit();
+        checkpoint.markComplete();
     }
 
     public static void main(String[] args) throws SolrServerException, IOException {
@@ -30,6 +36,7 @@ public class SolrClearer {
         //          System.setProperty(entry.getKey().toString(), entry.getValue().toString());
         //      }
 
+        LoadCheckpoint.parseArguments(args);
         final SolrClearer clearer = new SolrClearer();
         clearer.clearSolrIndex();
     }
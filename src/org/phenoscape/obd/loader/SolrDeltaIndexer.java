@@ -0,0 +1,302 @@
+package org.phenoscape.obd.loader;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Refreshes the Solr index for a set of changed OBD nodes, instead of clearing the index and
+ * running every Solr loader. Documents for the changed nodes, and for annotations involving them,
+ * are deleted; then every taxon, phenotype, gene, publication and annotation document depending on
+ * a changed node is rebuilt from the database using the same translation as the full loaders.
+ * Nodes and annotations deleted from the database can no longer be followed to the documents
+ * which referred to them, so those documents are first found in the index itself and rebuilt too.
+ * Deletes and upserts are committed together, so the index stays searchable throughout; the
+ * solr-commit-interval property is ignored here, and if reindexing fails the deletes are rolled back.
+ */
+public class SolrDeltaIndexer {
+
+    /** The db-host system property should contain the name of the database server. */
+    public static final String DB_HOST = "db-host";
+    /** The db-name system property should contain the name of the database. */
+    public static final String DB_NAME = "db-name";
+    /** The db-user system property should contain the database username. */
+    public static final String DB_USER = "db-user";
+    /** The db-password system property should contain the database password. */
+    public static final String DB_PASSWORD = "db-password";
+    /** The solr-url system property should contain the url for the Solr web application. */
+    public static final String SOLR_URL = "solr-url";
+    /** The solr-changed-nodes system property should contain the path to a file listing the UIDs of changed nodes, one per line. */
+    public static final String SOLR_CHANGED_NODES = "solr-changed-nodes";
+    /** Number of UIDs in each delete query, keeping the query below the Solr limit on boolean clauses. */
+    private static final int DELETE_CHUNK_SIZE = 200;
+    /** Number of documents fetched in each page when searching the index for dependent documents. */
+    private static final int SEARCH_PAGE_SIZE = 1000;
+    /** Fields in which a document refers to the UID of another node. */
+    private static final String[] REFERENCE_FIELDS = {"taxon", "phenotype", "publication", "gene", "subtaxon_of", "order", "family", "direct_taxon", "direct_gene"};
+    /** Fields of annotation documents naming the nodes whose documents include the annotation. */
+    private static final String[] ANNOTATION_NODE_FIELDS = {"phenotype", "direct_taxon", "direct_gene"};
+    private static final String CHANGED_NODES = "(SELECT node_id FROM delta_node)";
+    private static final String DEPENDENT_NODES = "(SELECT node_id FROM delta_dependent)";
+    private static final String TAXA_FILTER = String.format("base.node_id IN %s OR base.node_id IN %s OR base.node_id IN (SELECT taxon_node_id FROM taxon_annotation WHERE phenotype_node_id IN %s) OR base.node_id IN (SELECT taxon_annotation.taxon_node_id FROM taxon_annotation JOIN annotation_source ON (annotation_source.annotation_id = taxon_annotation.annotation_id) WHERE annotation_source.publication_node_id IN %s)", DEPENDENT_NODES, CHANGED_NODES, CHANGED_NODES, CHANGED_NODES);
+    private static final String PHENOTYPES_FILTER = String.format("base.node_id IN %s OR base.node_id IN %s OR base.node_id IN (SELECT phenotype_node_id FROM taxon_annotation WHERE taxon_node_id IN %s) OR base.node_id IN (SELECT phenotype_node_id FROM distinct_gene_annotation WHERE gene_node_id IN %s) OR base.node_id IN (SELECT asserted_taxon_annotation.phenotype_node_id FROM asserted_taxon_annotation JOIN annotation_source ON (annotation_source.annotation_id = asserted_taxon_annotation.annotation_id) WHERE annotation_source.publication_node_id IN %s)", DEPENDENT_NODES, CHANGED_NODES, CHANGED_NODES, CHANGED_NODES, CHANGED_NODES);
+    private static final String GENES_FILTER = String.format("base.node_id IN %s OR base.node_id IN %s OR base.node_id IN (SELECT gene_node_id FROM distinct_gene_annotation WHERE phenotype_node_id IN %s)", DEPENDENT_NODES, CHANGED_NODES, CHANGED_NODES);
+    private static final String PUBLICATIONS_FILTER = String.format("base.node_id IN %s OR base.node_id IN %s OR base.node_id IN (SELECT annotation_source.publication_node_id FROM annotation_source JOIN taxon_annotation ON (taxon_annotation.annotation_id = annotation_source.annotation_id) WHERE taxon_annotation.taxon_node_id IN %s OR taxon_annotation.phenotype_node_id IN %s)", DEPENDENT_NODES, CHANGED_NODES, CHANGED_NODES, CHANGED_NODES);
+    private static final String TAXON_ANNOTATIONS_FILTER = String.format("base.taxon_node_id IN %s OR base.phenotype_node_id IN %s", CHANGED_NODES, CHANGED_NODES);
+    private static final String GENE_ANNOTATIONS_FILTER = String.format("base.gene_node_id IN %s OR base.phenotype_node_id IN %s", CHANGED_NODES, CHANGED_NODES);
+
+    private Connection connection;
+    private SolrServer solr;
+    private BatchingSolrIndexer indexer;
+
+    /**
+     * Delete and rebuild all Solr documents depending on the given node UIDs.
+     * @return the number of documents sent to Solr
+     */
+    public int reindexNodes(Collection<String> changedUIDs) throws SQLException, ClassNotFoundException, SolrServerException, IOException {
+        this.connection = this.getConnection();
+        try {
+            this.solr = this.getSolrServer();
+            this.indexer = new BatchingSolrIndexer(this.solr, Integer.getInteger(BatchingSolrIndexer.SOLR_BATCH_SIZE, BatchingSolrIndexer.DEFAULT_BATCH_SIZE), 0);
+            log().info("Reindexing documents for " + changedUIDs.size() + " changed nodes");
+            final Set<String> dependentUIDs = this.findIndexedDependents(new ArrayList<String>(changedUIDs));
+            dependentUIDs.removeAll(changedUIDs);
+            log().info("Found " + dependentUIDs.size() + " further nodes whose documents refer to changed nodes");
+            this.createDeltaTables(changedUIDs, dependentUIDs);
+            boolean committed = false;
+            try {
+                this.deleteDocuments(new ArrayList<String>(changedUIDs));
+                int count = 0;
+                count += this.reindex(new SolrTaxonLoader(), SolrTaxonLoader.TAXA_QUERY, TAXA_FILTER);
+                count += this.reindex(new SolrPhenotypeLoader(), SolrPhenotypeLoader.PHENOTYPES_QUERY, PHENOTYPES_FILTER);
+                count += this.reindex(new SolrGeneLoader(), SolrGeneLoader.GENES, GENES_FILTER);
+                count += this.reindex(new SolrPublicationLoader(), SolrPublicationLoader.PUBLICATIONS_QUERY, PUBLICATIONS_FILTER);
+                count += this.reindex(new SolrPhenotypeAnnotationLoader(), SolrPhenotypeAnnotationLoader.ANNOTATIONS_QUERY, TAXON_ANNOTATIONS_FILTER);
+                count += this.reindex(new SolrGeneAnnotationLoader(), SolrGeneAnnotationLoader.GENE_ANNOTATIONS_QUERY, GENE_ANNOTATIONS_FILTER);
+                this.indexer.commit();
+                committed = true;
+                log().info("Reindexed " + count + " documents");
+                return count;
+            } finally {
+                if (!committed) {
+                    this.rollback();
+                }
+                this.dropDeltaTables();
+            }
+        } finally {
+            this.connection.close();
+        }
+    }
+
+    /**
+     * Return the UIDs of nodes whose documents refer to any of the changed nodes, or include an annotation
+     * involving one, according to the index. Unlike the database, the index still records references to
+     * nodes and annotations which have since been deleted.
+     */
+    private Set<String> findIndexedDependents(List<String> changedUIDs) throws SolrServerException {
+        final Set<String> dependents = new LinkedHashSet<String>();
+        for (int i = 0; i < changedUIDs.size(); i += DELETE_CHUNK_SIZE) {
+            final String uids = this.createOrQuery(changedUIDs.subList(i, Math.min(i + DELETE_CHUNK_SIZE, changedUIDs.size())));
+            final StringBuffer query = new StringBuffer();
+            for (String field : REFERENCE_FIELDS) {
+                if (query.length() > 0) {
+                    query.append(" OR ");
+                }
+                query.append(field).append(":").append(uids);
+            }
+            int start = 0;
+            long found;
+            do {
+                final SolrQuery search = new SolrQuery(query.toString());
+                search.setFields("id", "type", "phenotype", "direct_taxon", "direct_gene");
+                search.setStart(start);
+                search.setRows(SEARCH_PAGE_SIZE);
+                final SolrDocumentList results = this.solr.query(search).getResults();
+                for (SolrDocument doc : results) {
+                    final Object type = doc.getFieldValue("type");
+                    if ("taxon_phenotype_annotation".equals(type) || "gene_annotation".equals(type)) {
+                        for (String field : ANNOTATION_NODE_FIELDS) {
+                            final Collection<Object> values = doc.getFieldValues(field);
+                            if (values != null) {
+                                for (Object value : values) {
+                                    dependents.add(value.toString());
+                                }
+                            }
+                        }
+                    } else {
+                        dependents.add(doc.getFieldValue("id").toString());
+                    }
+                }
+                found = results.getNumFound();
+                start += SEARCH_PAGE_SIZE;
+            } while (start < found);
+        }
+        return dependents;
+    }
+
+    /**
+     * Load the changed and dependent UIDs into a temporary table, along with the node IDs of those still in the
+     * database. The tables are dropped first in case an earlier run on the same pooled connection failed.
+     */
+    private void createDeltaTables(Collection<String> changedUIDs, Collection<String> dependentUIDs) throws SQLException {
+        final Statement statement = this.connection.createStatement();
+        try {
+            statement.executeUpdate("DROP TABLE IF EXISTS delta_uid, delta_node, delta_dependent");
+            statement.executeUpdate("CREATE TEMPORARY TABLE delta_uid (uid TEXT, dependent BOOLEAN)");
+            final PreparedStatement insert = this.connection.prepareStatement("INSERT INTO delta_uid (uid, dependent) VALUES (?, ?)");
+            try {
+                for (String uid : changedUIDs) {
+                    insert.setString(1, uid);
+                    insert.setBoolean(2, false);
+                    insert.addBatch();
+                }
+                for (String uid : dependentUIDs) {
+                    insert.setString(1, uid);
+                    insert.setBoolean(2, true);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            } finally {
+                insert.close();
+            }
+            statement.executeUpdate("CREATE TEMPORARY TABLE delta_node AS SELECT node.node_id, node.uid FROM node JOIN delta_uid ON (delta_uid.uid = node.uid) WHERE NOT delta_uid.dependent");
+            statement.executeUpdate("CREATE TEMPORARY TABLE delta_dependent AS SELECT node.node_id, node.uid FROM node JOIN delta_uid ON (delta_uid.uid = node.uid) WHERE delta_uid.dependent");
+            statement.executeUpdate("ANALYZE delta_node");
+            statement.executeUpdate("ANALYZE delta_dependent");
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Temporary tables last as long as the database session, which outlives this run when the connection is pooled.
+     */
+    private void dropDeltaTables() throws SQLException {
+        final Statement statement = this.connection.createStatement();
+        try {
+            statement.executeUpdate("DROP TABLE IF EXISTS delta_uid, delta_node, delta_dependent");
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Delete the documents for the changed nodes and all annotation documents referring to them. Those still
+     * in the database are added back by the reindexing that follows, before the final commit.
+     */
+    private void deleteDocuments(List<String> changedUIDs) throws SolrServerException, IOException {
+        for (int i = 0; i < changedUIDs.size(); i += DELETE_CHUNK_SIZE) {
+            final List<String> chunk = changedUIDs.subList(i, Math.min(i + DELETE_CHUNK_SIZE, changedUIDs.size()));
+            this.solr.deleteById(chunk);
+            final String uids = this.createOrQuery(chunk);
+            this.solr.deleteByQuery("type:taxon_phenotype_annotation AND (direct_taxon:" + uids + " OR phenotype:" + uids + ")");
+            this.solr.deleteByQuery("type:gene_annotation AND (direct_gene:" + uids + " OR phenotype:" + uids + ")");
+        }
+    }
+
+    /**
+     * Discard the uncommitted deletes and upserts after a failure, so that the changed nodes don't disappear
+     * from the index with the next commit. A failure here is only logged, leaving the original one to propagate.
+     */
+    private void rollback() {
+        try {
+            this.solr.rollback();
+        } catch (SolrServerException e) {
+            log().error("Failed rolling back Solr changes", e);
+        } catch (IOException e) {
+            log().error("Failed rolling back Solr changes", e);
+        }
+    }
+
+    private String createOrQuery(List<String> values) {
+        final StringBuffer query = new StringBuffer("(");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                query.append(" OR ");
+            }
+            query.append("\"").append(ClientUtils.escapeQueryChars(values.get(i))).append("\"");
+        }
+        return query.append(")").toString();
+    }
+
+    private int reindex(SolrLoadingPipeline.RowTranslator translator, String baseQuery, String filter) throws SQLException, SolrServerException, IOException {
+        translator.prepare(this.connection);
+        final PreparedStatement query = this.connection.prepareStatement("SELECT * FROM (" + baseQuery + ") AS base WHERE " + filter);
+        int count = 0;
+        try {
+            final ResultSet result = query.executeQuery();
+            while (result.next()) {
+                final LoadMetrics.Timer timer = LoadMetrics.start("solr.translate");
+                final SolrInputDocument doc = translator.translate(new ResultRow(result));
+                timer.stop();
+                this.indexer.add(doc);
+                count++;
+            }
+        } finally {
+            query.close();
+        }
+        log().debug("Reindexed " + count + " documents using " + translator.getClass().getSimpleName());
+        return count;
+    }
+
+    private static Set<String> readChangedUIDs(String path) throws IOException {
+        final Set<String> uids = new LinkedHashSet<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    uids.add(line.trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return uids;
+    }
+
+    private Connection getConnection() throws SQLException, ClassNotFoundException {
+        return ConnectionPool.getPooledConnection();
+    }
+
+    private SolrServer getSolrServer() throws MalformedURLException {
+        return new CommonsHttpSolrServer(System.getProperty(SOLR_URL));
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+    /**
+     * @throws SQLException
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws SolrServerException
+     */
+    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException, SolrServerException {
+        final SolrDeltaIndexer indexer = new SolrDeltaIndexer();
+        indexer.reindexNodes(readChangedUIDs(System.getProperty(SOLR_CHANGED_NODES)));
+    }
+
+}
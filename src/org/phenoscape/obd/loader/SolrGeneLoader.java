@@ -3,7 +3,6 @@ package org.phenoscape.obd.loader;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -17,7 +16,7 @@ import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 import org.apache.solr.common.SolrInputDocument;
 import org.xml.sax.SAXException;
 
-public class SolrGeneLoader {
+public class SolrGeneLoader implements SolrLoadingPipeline.RowTranslator {
 
     /** The db-host system property should contain the name of the database server. */
     public static final String DB_HOST = "db-host";
@@ -29,32 +28,64 @@ public class SolrGeneLoader {
     public static final String DB_PASSWORD = "db-password";
     /** The solr-url system property should contain the url for the Solr web application. */
     public static final String SOLR_URL = "solr-url";
-    private static final String GENES = "SELECT DISTINCT gene.* FROM gene JOIN distinct_gene_annotation ON (distinct_gene_annotation.gene_node_id = gene.node_id)";
+    static final String GENES = "SELECT DISTINCT gene.* FROM gene JOIN distinct_gene_annotation ON (distinct_gene_annotation.gene_node_id = gene.node_id)";
     private static final String PHENOTYPES = "SELECT DISTINCT phenotype_uid FROM distinct_gene_annotation WHERE gene_node_id = ?";
     private Connection connection;
     private SolrServer solr;
+    private BatchingSolrIndexer indexer;
     private PreparedStatement phenotypesQuery;
 
-    public void loadGenesIntoSolr() throws SQLException, ClassNotFoundException, IOException, ParserConfigurationException, SAXException, SolrServerException {
+    public void loadGenesIntoSolr() throws SQLException, ClassNotFoundException, IOException, ParserConfigurationException, SAXException, SolrServerException, InterruptedException {
+        final LoadCheckpoint checkpoint = LoadCheckpoint.open("solr-genes");
+        if (checkpoint.isComplete()) {
+            log().info("Already indexed according to checkpoint; skipping");
+            return;
+        }
         this.connection = this.getConnection();
-        this.solr = this.getSolrServer();
-        final PreparedStatement genesQuery = this.connection.prepareStatement(GENES);
-        this.phenotypesQuery = this.connection.prepareStatement(PHENOTYPES);
-        final ResultSet genesResult = genesQuery.executeQuery();
-        int counter = 0;
-        while (genesResult.next()) {
-            counter++;
-            final String geneUID = genesResult.getString("uid");
-            log().debug("Processing annotation " + counter);
-            final SolrInputDocument doc = new SolrInputDocument();
-            doc.addField("id", geneUID);
-            doc.addField("type", "gene");
-            doc.addField("label", genesResult.getString("label"));
-            doc.addField("full_name", genesResult.getString("full_name"));
-            this.addPhenotypesToGene(genesResult.getInt("node_id"), doc);
-            this.solr.add(doc);
+        try {
+            this.solr = this.getSolrServer();
+            if (SolrLoadingPipeline.isEnabled()) {
+                new SolrLoadingPipeline(this.solr).run(this.connection, GENES, new SolrLoadingPipeline.RowTranslatorFactory() {
+                    public SolrLoadingPipeline.RowTranslator createTranslator() {
+                        return new SolrGeneLoader();
+                    }
+                });
+                checkpoint.markComplete();
+                return;
+            }
+            this.indexer = new BatchingSolrIndexer(this.solr);
+            final PreparedStatement genesQuery = this.connection.prepareStatement(GENES);
+            this.prepare(this.connection);
+            final ResultSet genesResult = genesQuery.executeQuery();
+            int counter = 0;
+            while (genesResult.next()) {
+                counter++;
+                log().debug("Processing annotation " + counter);
+                final LoadMetrics.Timer timer = LoadMetrics.start("solr.translate");
+                final SolrInputDocument doc = this.translate(new ResultRow(genesResult));
+                timer.stop();
+                this.indexer.add(doc);
+            }
+            this.indexer.commit();
+            checkpoint.markComplete();
+        } finally {
+            this.connection.close();
         }
-        this.solr.commit();
+    }
+
+    public void prepare(Connection connection) throws SQLException {
+        this.phenotypesQuery = connection.prepareStatement(PHENOTYPES);
+    }
+
+    public SolrInputDocument translate(ResultRow genesResult) throws SQLException {
+        final String geneUID = genesResult.getString("uid");
+        final SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", geneUID);
+        doc.addField("type", "gene");
+        doc.addField("label", genesResult.getString("label"));
+        doc.addField("full_name", genesResult.getString("full_name"));
+        this.addPhenotypesToGene(genesResult.getInt("node_id"), doc);
+        return doc;
     }
 
     private void addPhenotypesToGene(int geneNodeID, SolrInputDocument doc) throws SQLException {
@@ -67,8 +98,7 @@ public class SolrGeneLoader {
     }
 
     private Connection getConnection() throws SQLException, ClassNotFoundException {
-        Class.forName("org.postgresql.Driver");
-        return DriverManager.getConnection("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        return ConnectionPool.getPooledConnection();
     }
 
     private SolrServer getSolrServer() throws MalformedURLException {
@@ -87,8 +117,9 @@ public class SolrGeneLoader {
      * @throws SAXException 
      * @throws ParserConfigurationException 
      * @throws SolrServerException 
+     * @throws InterruptedException 
      */
-    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SolrServerException {
+    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SolrServerException, InterruptedException {
         //        Logger.getRootLogger().setLevel(Level.ALL);
         //        final Properties properties = new Properties();
         //        properties.load(SolrGeneAnnotationLoader.class.getResourceAsStream("connection.properties"));
@@ -96,6 +127,7 @@ public class SolrGeneLoader {
         //            System.setProperty(entry.getKey().toString(), entry.getValue().toString());
         //        }
 
+        LoadCheckpoint.parseArguments(args);
         final SolrGeneLoader loader = new SolrGeneLoader();
         loader.loadGenesIntoSolr();
     }
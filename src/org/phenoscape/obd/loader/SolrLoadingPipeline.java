@@ -0,0 +1,315 @@
+package org.phenoscape.obd.loader;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Builds and sends Solr documents in three concurrent stages. The calling thread streams the rows
+ * of a base query; a pool of builder threads, each with its own database connection and prepared
+ * statements, runs the per-row enrichment queries; and sender threads submit the finished documents
+ * to Solr in batches. The stages are connected by bounded queues, so a slow stage holds back the
+ * stages feeding it.
+ */
+public class SolrLoadingPipeline {
+
+    /** The solr-builder-threads system property may contain the number of threads building Solr documents. If unset, the Solr loaders build documents on the loading thread. */
+    public static final String SOLR_BUILDER_THREADS = "solr-builder-threads";
+    /** The solr-sender-threads system property may contain the number of threads sending documents to Solr. */
+    public static final String SOLR_SENDER_THREADS = "solr-sender-threads";
+    /** The solr-queue-size system property may contain the number of rows or documents held between pipeline stages. */
+    public static final String SOLR_QUEUE_SIZE = "solr-queue-size";
+    private static final int FETCH_SIZE = 1000;
+    private static final ResultRow NO_MORE_ROWS = new ResultRow(Collections.<String, Object>emptyMap());
+    private static final SolrInputDocument NO_MORE_DOCUMENTS = new SolrInputDocument();
+
+    private final SolrServer solr;
+    private final int builderThreads;
+    private final int senderThreads;
+    private final BlockingQueue<ResultRow> rows;
+    private final BlockingQueue<SolrInputDocument> documents;
+    private final AtomicInteger documentsBuilt = new AtomicInteger();
+    private volatile Exception failure;
+
+    /**
+     * Translates base query rows into Solr documents. Each builder thread uses its own instance.
+     */
+    public static interface RowTranslator {
+
+        /**
+         * Prepare any statements needed for translation using the given connection, which belongs to a single builder thread.
+         */
+        public void prepare(Connection connection) throws SQLException;
+
+        public SolrInputDocument translate(ResultRow row) throws SQLException;
+
+    }
+
+    public static interface RowTranslatorFactory {
+
+        public RowTranslator createTranslator();
+
+    }
+
+    /**
+     * Return whether the Solr loaders should build documents using a pipeline.
+     */
+    public static boolean isEnabled() {
+        return Integer.getInteger(SOLR_BUILDER_THREADS, 0) > 0;
+    }
+
+    /**
+     * Create a pipeline using the thread counts and queue size given by system properties.
+     */
+    public SolrLoadingPipeline(SolrServer solr) {
+        this(solr, Integer.getInteger(SOLR_BUILDER_THREADS, 1), Integer.getInteger(SOLR_SENDER_THREADS, 1), Integer.getInteger(SOLR_QUEUE_SIZE, 1000));
+    }
+
+    public SolrLoadingPipeline(SolrServer solr, int builderThreads, int senderThreads, int queueSize) {
+        this.solr = solr;
+        this.builderThreads = Math.max(1, builderThreads);
+        this.senderThreads = Math.max(1, senderThreads);
+        this.rows = new ArrayBlockingQueue<ResultRow>(queueSize);
+        this.documents = new ArrayBlockingQueue<SolrInputDocument>(queueSize);
+    }
+
+    /**
+     * Stream the rows of the base query through the pipeline and commit the resulting documents.
+     * @param connection the connection used to run the base query
+     * @param baseQuery a query returning one row per Solr document
+     * @param translators creates a translator for each builder thread
+     * @return the number of documents sent to Solr
+     */
+    public int run(Connection connection, String baseQuery, RowTranslatorFactory translators) throws SQLException, SolrServerException, IOException, ClassNotFoundException, InterruptedException {
+        final List<Thread> builders = new ArrayList<Thread>();
+        final List<Connection> builderConnections = new ArrayList<Connection>();
+        boolean prepared = false;
+        try {
+            for (int i = 0; i < this.builderThreads; i++) {
+                final Connection builderConnection = this.getConnection();
+                builderConnections.add(builderConnection);
+                final RowTranslator translator = translators.createTranslator();
+                translator.prepare(builderConnection);
+                builders.add(new Thread(new Builder(builderConnection, translator), "solr-builder-" + i));
+            }
+            prepared = true;
+        } finally {
+            // once prepared, each builder closes its own connection when it finishes
+            if (!prepared) {
+                for (Connection builderConnection : builderConnections) {
+                    try {
+                        builderConnection.close();
+                    } catch (SQLException e) {
+                        log().error("Failed closing builder connection", e);
+                    }
+                }
+            }
+        }
+        final List<Thread> senders = new ArrayList<Thread>();
+        final List<BatchingSolrIndexer> indexers = new ArrayList<BatchingSolrIndexer>();
+        for (int i = 0; i < this.senderThreads; i++) {
+            final BatchingSolrIndexer indexer = new BatchingSolrIndexer(this.solr);
+            indexers.add(indexer);
+            senders.add(new Thread(new Sender(indexer), "solr-sender-" + i));
+        }
+        for (Thread thread : builders) {
+            thread.start();
+        }
+        for (Thread thread : senders) {
+            thread.start();
+        }
+        try {
+            this.readRows(connection, baseQuery);
+        } catch (SQLException e) {
+            this.fail(e);
+        } finally {
+            for (int i = 0; i < builders.size(); i++) {
+                this.rows.put(NO_MORE_ROWS);
+            }
+        }
+        for (Thread thread : builders) {
+            thread.join();
+        }
+        for (int i = 0; i < senders.size(); i++) {
+            this.documents.put(NO_MORE_DOCUMENTS);
+        }
+        for (Thread thread : senders) {
+            thread.join();
+        }
+        this.rethrowFailure();
+        this.solr.commit();
+        int sent = 0;
+        for (BatchingSolrIndexer indexer : indexers) {
+            sent += indexer.getDocumentsSent();
+        }
+        log().info("Sent " + sent + " documents");
+        return sent;
+    }
+
+    private void readRows(Connection connection, String baseQuery) throws SQLException, InterruptedException {
+        // the driver only streams results using a cursor when autocommit is off
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        boolean read = false;
+        try {
+            final PreparedStatement query = connection.prepareStatement(baseQuery);
+            try {
+                query.setFetchSize(FETCH_SIZE);
+                final ResultSet result = query.executeQuery();
+                while ((this.failure == null) && result.next()) {
+                    this.rows.put(new ResultRow(result));
+                }
+                result.close();
+            } finally {
+                query.close();
+            }
+            connection.commit();
+            read = true;
+        } finally {
+            if (!read) {
+                try {
+                    connection.rollback();
+                } catch (SQLException e) {
+                    log().error("Failed rolling back base query", e);
+                }
+            }
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void fail(Exception e) {
+        log().error("Solr loading pipeline failed", e);
+        synchronized (this) {
+            if (this.failure == null) {
+                this.failure = e;
+            }
+        }
+    }
+
+    private void rethrowFailure() throws SQLException, SolrServerException, IOException {
+        final Exception e = this.failure;
+        if (e == null) {
+            return;
+        } else if (e instanceof SQLException) {
+            throw (SQLException)e;
+        } else if (e instanceof SolrServerException) {
+            throw (SolrServerException)e;
+        } else if (e instanceof IOException) {
+            throw (IOException)e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException)e;
+        } else {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Connection getConnection() throws SQLException, ClassNotFoundException {
+        return ConnectionPool.getPooledConnection();
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+    private class Builder implements Runnable {
+
+        private final Connection connection;
+        private final RowTranslator translator;
+
+        public Builder(Connection connection, RowTranslator translator) {
+            this.connection = connection;
+            this.translator = translator;
+        }
+
+        public void run() {
+            try {
+                ResultRow row;
+                while ((row = rows.take()) != NO_MORE_ROWS) {
+                    // after a failure keep draining the queue so that the reader is not blocked
+                    if (failure == null) {
+                        try {
+                            final LoadMetrics.Timer timer = LoadMetrics.start("solr.translate");
+                            final SolrInputDocument document = this.translator.translate(row);
+                            timer.stop();
+                            documents.put(document);
+                            final int built = documentsBuilt.incrementAndGet();
+                            if (built % 10000 == 0) {
+                                log().info("Built " + built + " documents");
+                            }
+                        } catch (SQLException e) {
+                            fail(e);
+                        } catch (RuntimeException e) {
+                            fail(e);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                fail(e);
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    this.connection.close();
+                } catch (SQLException e) {
+                    log().error("Failed closing builder connection", e);
+                }
+            }
+        }
+
+    }
+
+    private class Sender implements Runnable {
+
+        private final BatchingSolrIndexer indexer;
+
+        public Sender(BatchingSolrIndexer indexer) {
+            this.indexer = indexer;
+        }
+
+        public void run() {
+            try {
+                SolrInputDocument doc;
+                while ((doc = documents.take()) != NO_MORE_DOCUMENTS) {
+                    // after a failure keep draining the queue so that the builders are not blocked
+                    if (failure == null) {
+                        try {
+                            this.indexer.add(doc);
+                        } catch (SolrServerException e) {
+                            fail(e);
+                        } catch (IOException e) {
+                            fail(e);
+                        } catch (RuntimeException e) {
+                            fail(e);
+                        }
+                    }
+                }
+                if (failure == null) {
+                    try {
+                        this.indexer.flush();
+                    } catch (SolrServerException e) {
+                        fail(e);
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                fail(e);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+}
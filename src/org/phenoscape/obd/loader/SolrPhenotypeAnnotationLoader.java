@@ -3,7 +3,6 @@ package org.phenoscape.obd.loader;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -17,7 +16,7 @@ import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 import org.apache.solr.common.SolrInputDocument;
 import org.xml.sax.SAXException;
 
-public class SolrPhenotypeAnnotationLoader {
+public class SolrPhenotypeAnnotationLoader implements SolrLoadingPipeline.RowTranslator {
 
     /** The db-host system property should contain the name of the database server. */
     public static final String DB_HOST = "db-host";
@@ -29,37 +28,72 @@ public class SolrPhenotypeAnnotationLoader {
     public static final String DB_PASSWORD = "db-password";
     /** The solr-url system property should contain the url for the Solr web application. */
     public static final String SOLR_URL = "solr-url";
+    private static final int PAGE_SIZE = 10000;
+    private static final int FETCH_SIZE = 1000;
+    private static final String CHECKPOINT_ANNOTATION_ID = "last-annotation-id";
 
-    private static final String ANNOTATIONS_QUERY = "SELECT taxon_annotation.*, phenotype.uid AS phenotype_uid, phenotype.entity_uid, phenotype.entity_label, phenotype.quality_uid, phenotype.quality_label, phenotype.related_entity_uid, phenotype.related_entity_label, taxon.uid AS taxon_uid, taxon.label AS taxon_label, taxon.rank_uid, taxon.is_extinct, entity_label.simple_label AS direct_entity_simple_label, quality_label.simple_label AS direct_quality_simple_label, related_entity_label.simple_label AS direct_related_entity_simple_label, EXISTS (SELECT 1 FROM asserted_taxon_annotation WHERE asserted_taxon_annotation.annotation_id = taxon_annotation.annotation_id) AS is_asserted FROM taxon_annotation JOIN phenotype ON (phenotype.node_id = taxon_annotation.phenotype_node_id) JOIN taxon ON (taxon.node_id = taxon_annotation.taxon_node_id) JOIN smart_node_label entity_label ON (entity_label.node_id = phenotype.entity_node_id) JOIN smart_node_label quality_label ON (quality_label.node_id = phenotype.quality_node_id) LEFT JOIN smart_node_label related_entity_label ON (related_entity_label.node_id = phenotype.related_entity_node_id) ORDER BY annotation_id LIMIT 10000 OFFSET ?";
+    static final String ANNOTATIONS_QUERY = "SELECT taxon_annotation.*, phenotype.uid AS phenotype_uid, phenotype.entity_uid, phenotype.entity_label, phenotype.quality_uid, phenotype.quality_label, phenotype.related_entity_uid, phenotype.related_entity_label, taxon.uid AS taxon_uid, taxon.label AS taxon_label, taxon.rank_uid, taxon.is_extinct, entity_label.simple_label AS direct_entity_simple_label, quality_label.simple_label AS direct_quality_simple_label, related_entity_label.simple_label AS direct_related_entity_simple_label, EXISTS (SELECT 1 FROM asserted_taxon_annotation WHERE asserted_taxon_annotation.annotation_id = taxon_annotation.annotation_id) AS is_asserted FROM taxon_annotation JOIN phenotype ON (phenotype.node_id = taxon_annotation.phenotype_node_id) JOIN taxon ON (taxon.node_id = taxon_annotation.taxon_node_id) JOIN smart_node_label entity_label ON (entity_label.node_id = phenotype.entity_node_id) JOIN smart_node_label quality_label ON (quality_label.node_id = phenotype.quality_node_id) LEFT JOIN smart_node_label related_entity_label ON (related_entity_label.node_id = phenotype.related_entity_node_id)";
+    private static final String ANNOTATIONS_PAGE_QUERY = ANNOTATIONS_QUERY + " WHERE taxon_annotation.annotation_id > ? ORDER BY taxon_annotation.annotation_id LIMIT " + PAGE_SIZE;
 
     private Connection connection;
     private SolrServer solr;
+    private BatchingSolrIndexer indexer;
 
+    /**
+     * Index annotations a page at a time in order of annotation ID. After each page the documents are committed
+     * and the last annotation ID is checkpointed, so a resumed run continues with the next page.
+     */
     public void loadPhenotypeAnnotationsIntoSolr() throws SQLException, ClassNotFoundException, IOException, ParserConfigurationException, SAXException, SolrServerException {
+        final LoadCheckpoint checkpoint = LoadCheckpoint.open("solr-phenotype-annotations");
+        if (checkpoint.isComplete()) {
+            log().info("Already indexed according to checkpoint; skipping");
+            return;
+        }
         this.connection = this.getConnection();
-        this.solr = this.getSolrServer();
-        final PreparedStatement annotationsQuery = this.connection.prepareStatement(ANNOTATIONS_QUERY);
-        int offset = 0;
-        boolean more = true;
-        int counter = 0;
-        while (more) {
-            int iterationCounter = 0;
-            annotationsQuery.setInt(1, offset);
-            offset += 10000;
-            final ResultSet annotationsResult = annotationsQuery.executeQuery();
-            while (annotationsResult.next()) {
-                iterationCounter++;
-                counter++;
-                log().debug("Processing annotation " + counter);
-                final SolrInputDocument doc = this.translateAnnotation(annotationsResult);
-                this.solr.add(doc);
+        try {
+            this.solr = this.getSolrServer();
+            this.indexer = new BatchingSolrIndexer(this.solr);
+            // the driver only streams results using a cursor when autocommit is off
+            this.connection.setAutoCommit(false);
+            final PreparedStatement annotationsQuery = this.connection.prepareStatement(ANNOTATIONS_PAGE_QUERY);
+            annotationsQuery.setFetchSize(FETCH_SIZE);
+            int lastAnnotationID = checkpoint.getInt(CHECKPOINT_ANNOTATION_ID, Integer.MIN_VALUE);
+            boolean more = true;
+            int counter = 0;
+            while (more) {
+                int iterationCounter = 0;
+                annotationsQuery.setInt(1, lastAnnotationID);
+                final ResultSet annotationsResult = annotationsQuery.executeQuery();
+                while (annotationsResult.next()) {
+                    iterationCounter++;
+                    counter++;
+                    log().debug("Processing annotation " + counter);
+                    lastAnnotationID = annotationsResult.getInt("annotation_id");
+                    final LoadMetrics.Timer timer = LoadMetrics.start("solr.translate");
+                    final SolrInputDocument doc = this.translate(new ResultRow(annotationsResult));
+                    timer.stop();
+                    this.indexer.add(doc);
+                }
+                annotationsResult.close();
+                this.connection.commit();
+                if (iterationCounter < PAGE_SIZE) { more = false; }
+                if (iterationCounter > 0) {
+                    this.indexer.commit();
+                    checkpoint.update(CHECKPOINT_ANNOTATION_ID, String.valueOf(lastAnnotationID));
+                }
             }
-            this.solr.commit();
-            if (iterationCounter < 10000) { more = false; }
+            this.indexer.commit();
+            checkpoint.markComplete();
+        } finally {
+            this.connection.close();
         }
     }
 
-    private SolrInputDocument translateAnnotation(ResultSet annotationsResult) throws SQLException {
+    public void prepare(Connection connection) {
+        // all fields come from the annotations query
+    }
+
+    public SolrInputDocument translate(ResultRow annotationsResult) {
         //FIXME need taxon rank
         final SolrInputDocument doc = new SolrInputDocument();
         final String taxonUID = annotationsResult.getString("taxon_uid");
@@ -86,8 +120,7 @@ public class SolrPhenotypeAnnotationLoader {
     }
 
     private Connection getConnection() throws SQLException, ClassNotFoundException {
-        Class.forName("org.postgresql.Driver");
-        return DriverManager.getConnection("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        return ConnectionPool.getPooledConnection();
     }
 
     private SolrServer getSolrServer() throws MalformedURLException {
@@ -115,6 +148,7 @@ public class SolrPhenotypeAnnotationLoader {
 //            System.setProperty(entry.getKey().toString(), entry.getValue().toString());
 //        }
 
+        LoadCheckpoint.parseArguments(args);
         final SolrPhenotypeAnnotationLoader loader = new SolrPhenotypeAnnotationLoader();
         loader.loadPhenotypeAnnotationsIntoSolr();
     }
@@ -3,7 +3,6 @@ package org.phenoscape.obd.loader;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -17,7 +16,7 @@ import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 import org.apache.solr.common.SolrInputDocument;
 import org.xml.sax.SAXException;
 
-public class SolrPhenotypeLoader {
+public class SolrPhenotypeLoader implements SolrLoadingPipeline.RowTranslator {
 
     /** The db-host system property should contain the name of the database server. */
     public static final String DB_HOST = "db-host";
@@ -29,7 +28,10 @@ public class SolrPhenotypeLoader {
     public static final String DB_PASSWORD = "db-password";
     /** The solr-url system property should contain the url for the Solr web application. */
     public static final String SOLR_URL = "solr-url";
-    private static final String PHENOTYPES_QUERY = "SELECT phenotype.*, entity_label.simple_label AS direct_entity_simple_label, quality_label.simple_label AS direct_quality_simple_label, related_entity_label.simple_label AS direct_related_entity_simple_label FROM phenotype JOIN smart_node_label entity_label ON (entity_label.node_id = phenotype.entity_node_id) JOIN smart_node_label quality_label ON (quality_label.node_id = phenotype.quality_node_id) LEFT JOIN smart_node_label related_entity_label ON (related_entity_label.node_id = phenotype.related_entity_node_id)";
+    /** The solr-bulk-fetch system property may be set to true to fetch each facet of all phenotypes with a single query, instead of querying per phenotype. */
+    public static final String BULK_FETCH = "solr-bulk-fetch";
+    private static final int FETCH_SIZE = 10000;
+    static final String PHENOTYPES_QUERY = "SELECT phenotype.*, entity_label.simple_label AS direct_entity_simple_label, quality_label.simple_label AS direct_quality_simple_label, related_entity_label.simple_label AS direct_related_entity_simple_label FROM phenotype JOIN smart_node_label entity_label ON (entity_label.node_id = phenotype.entity_node_id) JOIN smart_node_label quality_label ON (quality_label.node_id = phenotype.quality_node_id) LEFT JOIN smart_node_label related_entity_label ON (related_entity_label.node_id = phenotype.related_entity_node_id)";
     private static final String TAXA_QUERY = "SELECT DISTINCT taxon.node_id AS taxon_node_id, taxon.uid AS taxon_uid, EXISTS (SELECT 1 FROM asserted_taxon_annotation WHERE asserted_taxon_annotation.annotation_id = taxon_annotation.annotation_id) AS some_is_asserted FROM taxon_annotation JOIN link taxon_is_a ON (taxon_is_a.predicate_id = (SELECT node.node_id FROM node WHERE node.uid = 'OBO_REL:is_a') AND taxon_is_a.node_id = taxon_annotation.taxon_node_id) JOIN node taxon ON (taxon.node_id = taxon_is_a.object_id) WHERE taxon_annotation.phenotype_node_id = ?";
     private static final String ENTITIES_QUERY = "SELECT DISTINCT entity.node_id AS entity_node_id, entity.uid AS entity_uid, phenotype.node_id AS phenotype_node_id, EXISTS (SELECT 1 FROM link WHERE link.predicate_id = (SELECT node.node_id FROM node where node.uid = 'OBO_REL:inheres_in') AND link.node_id = phenotype.node_id AND link.object_id = phenotype_inheres_in_part_of.object_id) AS strict_inheres_in FROM phenotype JOIN link phenotype_inheres_in_part_of ON (phenotype_inheres_in_part_of.predicate_id = (SELECT node.node_id FROM node where node.uid = 'OBO_REL:inheres_in_part_of') AND phenotype_inheres_in_part_of.node_id = phenotype.node_id) JOIN node entity ON (entity.node_id = phenotype_inheres_in_part_of.object_id) WHERE phenotype.node_id = ?";
     private static final String QUALITIES_QUERY = "SELECT DISTINCT quality.node_id AS quality_node_id, quality.uid AS quality_uid, phenotype.node_id AS phenotype_node_id FROM phenotype JOIN link phenotype_is_a ON (phenotype_is_a.predicate_id = (SELECT node.node_id FROM node where node.uid = 'OBO_REL:is_a') AND phenotype_is_a.node_id = phenotype.node_id) JOIN node quality ON (quality.node_id = phenotype_is_a.object_id) WHERE phenotype.node_id = ?";
@@ -37,8 +39,16 @@ public class SolrPhenotypeLoader {
     private static final String GENES_QUERY = "SELECT DISTINCT gene_node_id, gene_uid FROM distinct_gene_annotation WHERE phenotype_node_id = ?";
     private static final String GO_QUERY = String.format("SELECT DISTINCT go_term.node_id AS go_term_node_id, go_term.uid AS go_term_uid FROM distinct_gene_annotation JOIN link go_link ON (go_link.node_id = distinct_gene_annotation.gene_node_id AND go_link.predicate_id IN (SELECT node_id FROM node WHERE uid IN ('%s', '%s', '%s'))) JOIN node go_term ON (go_term.node_id = go_link.object_id) WHERE phenotype_node_id = ?", Vocab.GENE_TO_BIOLOGICAL_PROCESS_REL_ID, Vocab.GENE_TO_CELLULAR_COMPONENT_REL_ID, Vocab.GENE_TO_MOLECULAR_FUNCTION_REL_ID);
     private static final String PUBLICATIONS_QUERY = "SELECT DISTINCT publication.uid AS publication_uid FROM asserted_taxon_annotation JOIN annotation_source ON (annotation_source.annotation_id = asserted_taxon_annotation.annotation_id) JOIN node publication ON (publication.node_id = annotation_source.publication_node_id) WHERE asserted_taxon_annotation.phenotype_node_id = ?";
+    private static final String TAXA_BULK_QUERY = "SELECT DISTINCT taxon_annotation.phenotype_node_id, taxon.node_id AS taxon_node_id, taxon.uid AS taxon_uid, EXISTS (SELECT 1 FROM asserted_taxon_annotation WHERE asserted_taxon_annotation.annotation_id = taxon_annotation.annotation_id) AS some_is_asserted FROM taxon_annotation JOIN link taxon_is_a ON (taxon_is_a.predicate_id = (SELECT node.node_id FROM node WHERE node.uid = 'OBO_REL:is_a') AND taxon_is_a.node_id = taxon_annotation.taxon_node_id) JOIN node taxon ON (taxon.node_id = taxon_is_a.object_id) ORDER BY taxon_annotation.phenotype_node_id";
+    private static final String ENTITIES_BULK_QUERY = "SELECT DISTINCT entity.node_id AS entity_node_id, entity.uid AS entity_uid, phenotype.node_id AS phenotype_node_id, EXISTS (SELECT 1 FROM link WHERE link.predicate_id = (SELECT node.node_id FROM node where node.uid = 'OBO_REL:inheres_in') AND link.node_id = phenotype.node_id AND link.object_id = phenotype_inheres_in_part_of.object_id) AS strict_inheres_in FROM phenotype JOIN link phenotype_inheres_in_part_of ON (phenotype_inheres_in_part_of.predicate_id = (SELECT node.node_id FROM node where node.uid = 'OBO_REL:inheres_in_part_of') AND phenotype_inheres_in_part_of.node_id = phenotype.node_id) JOIN node entity ON (entity.node_id = phenotype_inheres_in_part_of.object_id) ORDER BY phenotype_node_id";
+    private static final String QUALITIES_BULK_QUERY = "SELECT DISTINCT quality.node_id AS quality_node_id, quality.uid AS quality_uid, phenotype.node_id AS phenotype_node_id FROM phenotype JOIN link phenotype_is_a ON (phenotype_is_a.predicate_id = (SELECT node.node_id FROM node where node.uid = 'OBO_REL:is_a') AND phenotype_is_a.node_id = phenotype.node_id) JOIN node quality ON (quality.node_id = phenotype_is_a.object_id) ORDER BY phenotype_node_id";
+    private static final String RELATED_ENTITIES_BULK_QUERY = "SELECT DISTINCT related_entity.node_id AS related_entity_node_id, related_entity.uid AS related_entity_uid, phenotype.node_id AS phenotype_node_id FROM phenotype JOIN link phenotype_towards ON (phenotype_towards.predicate_id = (SELECT node.node_id FROM node where node.uid = 'OBO_REL:towards') AND phenotype_towards.node_id = phenotype.node_id) JOIN node related_entity ON (related_entity.node_id = phenotype_towards.object_id) ORDER BY phenotype_node_id";
+    private static final String GENES_BULK_QUERY = "SELECT DISTINCT phenotype_node_id, gene_node_id, gene_uid FROM distinct_gene_annotation ORDER BY phenotype_node_id";
+    private static final String GO_BULK_QUERY = String.format("SELECT DISTINCT distinct_gene_annotation.phenotype_node_id, go_term.node_id AS go_term_node_id, go_term.uid AS go_term_uid FROM distinct_gene_annotation JOIN link go_link ON (go_link.node_id = distinct_gene_annotation.gene_node_id AND go_link.predicate_id IN (SELECT node_id FROM node WHERE uid IN ('%s', '%s', '%s'))) JOIN node go_term ON (go_term.node_id = go_link.object_id) ORDER BY distinct_gene_annotation.phenotype_node_id", Vocab.GENE_TO_BIOLOGICAL_PROCESS_REL_ID, Vocab.GENE_TO_CELLULAR_COMPONENT_REL_ID, Vocab.GENE_TO_MOLECULAR_FUNCTION_REL_ID);
+    private static final String PUBLICATIONS_BULK_QUERY = "SELECT DISTINCT asserted_taxon_annotation.phenotype_node_id, publication.uid AS publication_uid FROM asserted_taxon_annotation JOIN annotation_source ON (annotation_source.annotation_id = asserted_taxon_annotation.annotation_id) JOIN node publication ON (publication.node_id = annotation_source.publication_node_id) ORDER BY asserted_taxon_annotation.phenotype_node_id";
     private Connection connection;
     private SolrServer solr;
+    private BatchingSolrIndexer indexer;
     private PreparedStatement taxaQuery;
     private PreparedStatement entitiesQuery;
     private PreparedStatement qualitiesQuery;
@@ -47,36 +57,137 @@ public class SolrPhenotypeLoader {
     private PreparedStatement goQuery;
     private PreparedStatement publicationsQuery;
 
-    public void loadPhenotypeAssociationsIntoSolr() throws SQLException, ClassNotFoundException, IOException, ParserConfigurationException, SAXException, SolrServerException {
+    public void loadPhenotypeAssociationsIntoSolr() throws SQLException, ClassNotFoundException, IOException, ParserConfigurationException, SAXException, SolrServerException, InterruptedException {
+        final LoadCheckpoint checkpoint = LoadCheckpoint.open("solr-phenotypes");
+        if (checkpoint.isComplete()) {
+            log().info("Already indexed according to checkpoint; skipping");
+            return;
+        }
         this.connection = this.getConnection();
-        this.solr = this.getSolrServer();
+        try {
+            this.solr = this.getSolrServer();
+            if (SolrLoadingPipeline.isEnabled() && !Boolean.getBoolean(BULK_FETCH)) {
+                new SolrLoadingPipeline(this.solr).run(this.connection, PHENOTYPES_QUERY, new SolrLoadingPipeline.RowTranslatorFactory() {
+                    public SolrLoadingPipeline.RowTranslator createTranslator() {
+                        return new SolrPhenotypeLoader();
+                    }
+                });
+                checkpoint.markComplete();
+                return;
+            }
+            this.indexer = new BatchingSolrIndexer(this.solr);
+            if (Boolean.getBoolean(BULK_FETCH)) {
+                this.loadPhenotypesWithBulkFetch();
+            } else {
+                this.loadPhenotypesWithSubqueries();
+            }
+            this.indexer.commit();
+            checkpoint.markComplete();
+        } finally {
+            this.connection.close();
+        }
+    }
+
+    private void loadPhenotypesWithSubqueries() throws SQLException, SolrServerException, IOException {
         final PreparedStatement phenotypesQuery = this.connection.prepareStatement(PHENOTYPES_QUERY);
-        this.taxaQuery = this.connection.prepareStatement(TAXA_QUERY);
-        this.entitiesQuery = this.connection.prepareStatement(ENTITIES_QUERY);
-        this.qualitiesQuery = this.connection.prepareStatement(QUALITIES_QUERY);
-        this.relatedEntitiesQuery = this.connection.prepareStatement(RELATED_ENTITIES_QUERY);
-        this.genesQuery = this.connection.prepareStatement(GENES_QUERY);
-        this.goQuery = this.connection.prepareStatement(GO_QUERY);
-        this.publicationsQuery = this.connection.prepareStatement(PUBLICATIONS_QUERY);
+        this.prepare(this.connection);
         final ResultSet phenotypesResult = phenotypesQuery.executeQuery();
         int counter = 0;
+        while (phenotypesResult.next()) {
+            counter++;
+            log().debug("Processing phenotype " + counter + ": " + phenotypesResult.getString("uid"));
+            final LoadMetrics.Timer timer = LoadMetrics.start("solr.translate");
+            final SolrInputDocument doc = this.translate(new ResultRow(phenotypesResult));
+            timer.stop();
+            this.indexer.add(doc);
+        }
+    }
+
+    public void prepare(Connection connection) throws SQLException {
+        this.taxaQuery = connection.prepareStatement(TAXA_QUERY);
+        this.entitiesQuery = connection.prepareStatement(ENTITIES_QUERY);
+        this.qualitiesQuery = connection.prepareStatement(QUALITIES_QUERY);
+        this.relatedEntitiesQuery = connection.prepareStatement(RELATED_ENTITIES_QUERY);
+        this.genesQuery = connection.prepareStatement(GENES_QUERY);
+        this.goQuery = connection.prepareStatement(GO_QUERY);
+        this.publicationsQuery = connection.prepareStatement(PUBLICATIONS_QUERY);
+    }
+
+    public SolrInputDocument translate(ResultRow phenotypesResult) throws SQLException {
+        final SolrInputDocument doc = this.translatePhenotype(phenotypesResult.getInt("node_id"), phenotypesResult.getString("uid"));
+        this.addDirectFields(phenotypesResult, doc);
+        return doc;
+    }
+
+    /**
+     * Run each facet query once over all phenotypes, with every result sorted by phenotype node ID, 
+     * and merge the sorted results while walking the phenotypes in the same order.
+     */
+    private void loadPhenotypesWithBulkFetch() throws SQLException, SolrServerException, IOException {
+        // the driver only streams results using a cursor when autocommit is off
+        this.connection.setAutoCommit(false);
+        final ResultSet phenotypesResult = this.executeBulkQuery(PHENOTYPES_QUERY + " ORDER BY phenotype.node_id");
+        final SortedFacet taxa = new SortedFacet(this.executeBulkQuery(TAXA_BULK_QUERY));
+        final SortedFacet entities = new SortedFacet(this.executeBulkQuery(ENTITIES_BULK_QUERY));
+        final SortedFacet qualities = new SortedFacet(this.executeBulkQuery(QUALITIES_BULK_QUERY));
+        final SortedFacet relatedEntities = new SortedFacet(this.executeBulkQuery(RELATED_ENTITIES_BULK_QUERY));
+        final SortedFacet genes = new SortedFacet(this.executeBulkQuery(GENES_BULK_QUERY));
+        final SortedFacet goTerms = new SortedFacet(this.executeBulkQuery(GO_BULK_QUERY));
+        final SortedFacet publications = new SortedFacet(this.executeBulkQuery(PUBLICATIONS_BULK_QUERY));
+        int counter = 0;
         while (phenotypesResult.next()) {
             counter++;
             final int phenotypeNodeID = phenotypesResult.getInt("node_id");
             final String phenotypeUID = phenotypesResult.getString("uid");
             log().debug("Processing phenotype " + counter + ": " + phenotypeUID);
-            final SolrInputDocument doc = this.translatePhenotype(phenotypeNodeID, phenotypeUID);
-            doc.addField("id", phenotypeUID);
-            doc.addField("type", "phenotype");
-            doc.addField("direct_entity", phenotypesResult.getString("entity_uid"));
-            doc.addField("direct_entity_label", phenotypesResult.getString("direct_entity_simple_label"));
-            doc.addField("direct_quality", phenotypesResult.getString("quality_uid"));
-            doc.addField("direct_quality_label", phenotypesResult.getString("direct_quality_simple_label"));
-            doc.addField("direct_related_entity", phenotypesResult.getString("related_entity_uid"));
-            doc.addField("direct_related_entity_label", phenotypesResult.getString("direct_related_entity_simple_label"));
-            this.solr.add(doc);
+            final LoadMetrics.Timer timer = LoadMetrics.start("solr.translate");
+            final SolrInputDocument doc = new SolrInputDocument();
+            for (; taxa.seek(phenotypeNodeID); taxa.next()) {
+                this.addTaxon(taxa.getRow(), doc);
+            }
+            for (; entities.seek(phenotypeNodeID); entities.next()) {
+                this.addEntity(entities.getRow(), doc);
+            }
+            for (; qualities.seek(phenotypeNodeID); qualities.next()) {
+                this.addQuality(qualities.getRow(), doc);
+            }
+            for (; relatedEntities.seek(phenotypeNodeID); relatedEntities.next()) {
+                this.addRelatedEntity(relatedEntities.getRow(), doc);
+            }
+            for (; genes.seek(phenotypeNodeID); genes.next()) {
+                this.addGene(genes.getRow(), doc);
+            }
+            for (; goTerms.seek(phenotypeNodeID); goTerms.next()) {
+                this.addGOTerm(goTerms.getRow(), doc);
+            }
+            for (; publications.seek(phenotypeNodeID); publications.next()) {
+                this.addPublication(publications.getRow(), doc);
+            }
+            this.addDirectFields(new ResultRow(phenotypesResult), doc);
+            timer.stop();
+            this.indexer.add(doc);
         }
-        this.solr.commit();
+        this.connection.commit();
+    }
+
+    private ResultSet executeBulkQuery(String query) throws SQLException {
+        final PreparedStatement statement = this.connection.prepareStatement(query);
+        statement.setFetchSize(FETCH_SIZE);
+        final LoadMetrics.Timer timer = LoadMetrics.start("solr.subquery");
+        final ResultSet result = statement.executeQuery();
+        timer.stop();
+        return result;
+    }
+
+    private void addDirectFields(ResultRow phenotypesResult, SolrInputDocument doc) {
+        doc.addField("id", phenotypesResult.getString("uid"));
+        doc.addField("type", "phenotype");
+        doc.addField("direct_entity", phenotypesResult.getString("entity_uid"));
+        doc.addField("direct_entity_label", phenotypesResult.getString("direct_entity_simple_label"));
+        doc.addField("direct_quality", phenotypesResult.getString("quality_uid"));
+        doc.addField("direct_quality_label", phenotypesResult.getString("direct_quality_simple_label"));
+        doc.addField("direct_related_entity", phenotypesResult.getString("related_entity_uid"));
+        doc.addField("direct_related_entity_label", phenotypesResult.getString("direct_related_entity_simple_label"));
     }
 
     private SolrInputDocument translatePhenotype(int phenotypeNodeID, String phenotypeUID) throws SQLException {
@@ -94,12 +205,16 @@ public class SolrPhenotypeLoader {
         this.taxaQuery.setInt(1, phenotypeNodeID);
         final ResultSet result = this.taxaQuery.executeQuery();
         while (result.next()) {
-            final String taxonUID = result.getString("taxon_uid");
-            final boolean someIsAsserted = result.getBoolean("some_is_asserted");
-            doc.addField("taxon", taxonUID);
-            if (someIsAsserted) {
-                doc.addField("taxon_asserted", taxonUID);
-            }
+            this.addTaxon(result, doc);
+        }
+    }
+
+    private void addTaxon(ResultSet result, SolrInputDocument doc) throws SQLException {
+        final String taxonUID = result.getString("taxon_uid");
+        final boolean someIsAsserted = result.getBoolean("some_is_asserted");
+        doc.addField("taxon", taxonUID);
+        if (someIsAsserted) {
+            doc.addField("taxon_asserted", taxonUID);
         }
     }
 
@@ -107,12 +222,16 @@ public class SolrPhenotypeLoader {
         this.entitiesQuery.setInt(1, phenotypeNodeID);
         final ResultSet result = this.entitiesQuery.executeQuery();
         while (result.next()) {
-            final String entityUID = result.getString("entity_uid");
-            final boolean strictInheresIn = result.getBoolean("strict_inheres_in");
-            doc.addField("entity", entityUID);
-            if (strictInheresIn) {
-                doc.addField("entity_strict_inheres_in", entityUID);
-            }
+            this.addEntity(result, doc);
+        }
+    }
+
+    private void addEntity(ResultSet result, SolrInputDocument doc) throws SQLException {
+        final String entityUID = result.getString("entity_uid");
+        final boolean strictInheresIn = result.getBoolean("strict_inheres_in");
+        doc.addField("entity", entityUID);
+        if (strictInheresIn) {
+            doc.addField("entity_strict_inheres_in", entityUID);
         }
     }
 
@@ -120,47 +239,66 @@ public class SolrPhenotypeLoader {
         this.qualitiesQuery.setInt(1, phenotypeNodeID);
         final ResultSet result = this.qualitiesQuery.executeQuery();
         while (result.next()) {
-            final String qualityUID = result.getString("quality_uid");
-            doc.addField("quality", qualityUID);
+            this.addQuality(result, doc);
         }
     }
 
+    private void addQuality(ResultSet result, SolrInputDocument doc) throws SQLException {
+        final String qualityUID = result.getString("quality_uid");
+        doc.addField("quality", qualityUID);
+    }
+
     private void addRelatedEntitiesToPhenotype(int phenotypeNodeID, SolrInputDocument doc) throws SQLException {
         this.relatedEntitiesQuery.setInt(1, phenotypeNodeID);
         final ResultSet result = this.relatedEntitiesQuery.executeQuery();
         while (result.next()) {
-            final String relatedEntityUID = result.getString("related_entity_uid");
-            doc.addField("related_entity", relatedEntityUID);
+            this.addRelatedEntity(result, doc);
         }
     }
 
+    private void addRelatedEntity(ResultSet result, SolrInputDocument doc) throws SQLException {
+        final String relatedEntityUID = result.getString("related_entity_uid");
+        doc.addField("related_entity", relatedEntityUID);
+    }
+
     private void addGenesToPhenotype(int phenotypeNodeID, SolrInputDocument doc) throws SQLException {
         this.genesQuery.setInt(1, phenotypeNodeID);
         final ResultSet genesResult = this.genesQuery.executeQuery();
         while (genesResult.next()) {
-            final String geneObjectUID = genesResult.getString("gene_uid");
-            doc.addField("gene", geneObjectUID);
+            this.addGene(genesResult, doc);
         }
         this.goQuery.setInt(1, phenotypeNodeID);
         final ResultSet goResult = this.goQuery.executeQuery();
         while (goResult.next()) {
-            final String goTermUID = goResult.getString("go_term_uid");
-            doc.addField("gene", goTermUID);
+            this.addGOTerm(goResult, doc);
         }
     }
+
+    private void addGene(ResultSet result, SolrInputDocument doc) throws SQLException {
+        final String geneObjectUID = result.getString("gene_uid");
+        doc.addField("gene", geneObjectUID);
+    }
+
+    private void addGOTerm(ResultSet result, SolrInputDocument doc) throws SQLException {
+        final String goTermUID = result.getString("go_term_uid");
+        doc.addField("gene", goTermUID);
+    }
     
     private void addPublicationsToPhenotype(int phenotypeNodeID, SolrInputDocument doc) throws SQLException {
         this.publicationsQuery.setInt(1, phenotypeNodeID);
         final ResultSet pubsResult = this.publicationsQuery.executeQuery();
         while (pubsResult.next()) {
-            final String pubUID = pubsResult.getString("publication_uid");
-            doc.addField("publication", pubUID);
+            this.addPublication(pubsResult, doc);
         }
     }
 
+    private void addPublication(ResultSet result, SolrInputDocument doc) throws SQLException {
+        final String pubUID = result.getString("publication_uid");
+        doc.addField("publication", pubUID);
+    }
+
     private Connection getConnection() throws SQLException, ClassNotFoundException {
-        Class.forName("org.postgresql.Driver");
-        return DriverManager.getConnection("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        return ConnectionPool.getPooledConnection();
     }
 
     private SolrServer getSolrServer() throws MalformedURLException {
@@ -171,6 +309,39 @@ public class SolrPhenotypeLoader {
         return Logger.getLogger(this.getClass());
     }
 
+    /**
+     * A facet query result sorted by phenotype node ID, consumed in step with the phenotypes query.
+     */
+    private static class SortedFacet {
+
+        private final ResultSet result;
+        private boolean hasRow;
+
+        public SortedFacet(ResultSet result) throws SQLException {
+            this.result = result;
+            this.hasRow = result.next();
+        }
+
+        /**
+         * Skip rows belonging to phenotypes before the given one, and return whether the current row belongs to it.
+         */
+        public boolean seek(int phenotypeNodeID) throws SQLException {
+            while (this.hasRow && (this.result.getInt("phenotype_node_id") < phenotypeNodeID)) {
+                this.hasRow = this.result.next();
+            }
+            return this.hasRow && (this.result.getInt("phenotype_node_id") == phenotypeNodeID);
+        }
+
+        public ResultSet getRow() {
+            return this.result;
+        }
+
+        public void next() throws SQLException {
+            this.hasRow = this.result.next();
+        }
+
+    }
+
 
     /**
      * @throws SQLException
@@ -179,8 +350,9 @@ public class SolrPhenotypeLoader {
      * @throws SAXException 
      * @throws ParserConfigurationException 
      * @throws SolrServerException 
+     * @throws InterruptedException 
      */
-    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SolrServerException {
+    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SolrServerException, InterruptedException {
 //        Logger.getRootLogger().setLevel(Level.ALL);
 //        final Properties properties = new Properties();
 //        properties.load(SolrPhenotypeLoader.class.getResourceAsStream("connection.properties"));
@@ -188,6 +360,7 @@ public class SolrPhenotypeLoader {
 //            System.setProperty(entry.getKey().toString(), entry.getValue().toString());
 //        }
 
+        LoadCheckpoint.parseArguments(args);
         final SolrPhenotypeLoader loader = new SolrPhenotypeLoader();
         loader.loadPhenotypeAssociationsIntoSolr();
     }
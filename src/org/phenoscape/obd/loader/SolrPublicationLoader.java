@@ -3,7 +3,6 @@ package org.phenoscape.obd.loader;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -17,7 +16,7 @@ import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 import org.apache.solr.common.SolrInputDocument;
 import org.xml.sax.SAXException;
 
-public class SolrPublicationLoader {
+public class SolrPublicationLoader implements SolrLoadingPipeline.RowTranslator {
 
     /** The db-host system property should contain the name of the database server. */
     public static final String DB_HOST = "db-host";
@@ -30,41 +29,73 @@ public class SolrPublicationLoader {
     /** The solr-url system property should contain the url for the Solr web application. */
     public static final String SOLR_URL = "solr-url";
 
-    private static final String PUBLICATIONS_QUERY = "SELECT DISTINCT publication.node_id, publication.uid, publication.label FROM node publication JOIN annotation_source ON (annotation_source.publication_node_id = publication.node_id)";
+    static final String PUBLICATIONS_QUERY = "SELECT DISTINCT publication.node_id, publication.uid, publication.label FROM node publication JOIN annotation_source ON (annotation_source.publication_node_id = publication.node_id)";
     private static final String TAXA_QUERY = "SELECT DISTINCT taxon.uid FROM annotation_source JOIN taxon_annotation ON (taxon_annotation.annotation_id = annotation_source.annotation_id) JOIN link taxon_is_a ON (taxon_is_a.node_id = taxon_annotation.taxon_node_id AND taxon_is_a.predicate_id = (SELECT node_id FROM node WHERE uid = 'OBO_REL:is_a')) JOIN taxon ON (taxon.node_id = taxon_is_a.object_id) WHERE annotation_source.publication_node_id = ?";
     private static final String PHENOTYPES_QUERY = "SELECT DISTINCT phenotype.uid FROM annotation_source JOIN taxon_annotation ON (taxon_annotation.annotation_id = annotation_source.annotation_id) JOIN phenotype ON (phenotype.node_id = taxon_annotation.phenotype_node_id) WHERE annotation_source.publication_node_id = ?";
     private static final String ANNOTATIONS_QUERY = "SELECT DISTINCT taxon.uid AS taxon_uid, phenotype.uid AS phenotype_uid FROM annotation_source JOIN taxon_annotation ON (taxon_annotation.annotation_id = annotation_source.annotation_id) JOIN phenotype ON (phenotype.node_id = taxon_annotation.phenotype_node_id) JOIN taxon ON (taxon.node_id = taxon_annotation.taxon_node_id) WHERE annotation_source.publication_node_id = ?";
 
     private Connection connection;
     private SolrServer solr;
+    private BatchingSolrIndexer indexer;
     private PreparedStatement taxaQuery;
     private PreparedStatement phenotypesQuery;
     private PreparedStatement annotationsQuery;
 
-    public void loadPublicationsIntoSolr() throws SQLException, ClassNotFoundException, IOException, ParserConfigurationException, SAXException, SolrServerException {
+    public void loadPublicationsIntoSolr() throws SQLException, ClassNotFoundException, IOException, ParserConfigurationException, SAXException, SolrServerException, InterruptedException {
+        final LoadCheckpoint checkpoint = LoadCheckpoint.open("solr-publications");
+        if (checkpoint.isComplete()) {
+            log().info("Already indexed according to checkpoint; skipping");
+            return;
+        }
         this.connection = this.getConnection();
-        this.solr = this.getSolrServer();
-        this.taxaQuery = this.connection.prepareStatement(TAXA_QUERY);
-        this.phenotypesQuery = this.connection.prepareStatement(PHENOTYPES_QUERY);
-        this.annotationsQuery = this.connection.prepareStatement(ANNOTATIONS_QUERY);
-        final ResultSet pubsResult = this.connection.prepareStatement(PUBLICATIONS_QUERY).executeQuery();
-        int counter = 0;
-        while (pubsResult.next()) {
-            counter++;
-            final int pubNodeID = pubsResult.getInt("node_id");
-            final String pubUID = pubsResult.getString("uid");
-            final String pubLabel = pubsResult.getString("label");
-            log().debug("Processing publication " + counter + ": " + pubUID);
-            final SolrInputDocument doc = new SolrInputDocument();
-            doc.addField("type", "publication");
-            doc.addField("id", pubUID);
-            doc.addField("label", pubLabel);
-            this.addTaxaToPublication(pubNodeID, doc);
-            this.addPhenotypesToPublication(pubNodeID, doc);
-            this.addAnnotationsToPublication(pubNodeID, doc);
-            this.solr.add(doc);
+        try {
+            this.solr = this.getSolrServer();
+            if (SolrLoadingPipeline.isEnabled()) {
+                new SolrLoadingPipeline(this.solr).run(this.connection, PUBLICATIONS_QUERY, new SolrLoadingPipeline.RowTranslatorFactory() {
+                    public SolrLoadingPipeline.RowTranslator createTranslator() {
+                        return new SolrPublicationLoader();
+                    }
+                });
+                checkpoint.markComplete();
+                return;
+            }
+            this.indexer = new BatchingSolrIndexer(this.solr);
+            this.prepare(this.connection);
+            final ResultSet pubsResult = this.connection.prepareStatement(PUBLICATIONS_QUERY).executeQuery();
+            int counter = 0;
+            while (pubsResult.next()) {
+                counter++;
+                log().debug("Processing publication " + counter + ": " + pubsResult.getString("uid"));
+                final LoadMetrics.Timer timer = LoadMetrics.start("solr.translate");
+                final SolrInputDocument doc = this.translate(new ResultRow(pubsResult));
+                timer.stop();
+                this.indexer.add(doc);
+            }
+            this.indexer.commit();
+            checkpoint.markComplete();
+        } finally {
+            this.connection.close();
         }
-        this.solr.commit();
+    }
+
+    public void prepare(Connection connection) throws SQLException {
+        this.taxaQuery = connection.prepareStatement(TAXA_QUERY);
+        this.phenotypesQuery = connection.prepareStatement(PHENOTYPES_QUERY);
+        this.annotationsQuery = connection.prepareStatement(ANNOTATIONS_QUERY);
+    }
+
+    public SolrInputDocument translate(ResultRow pubsResult) throws SQLException {
+        final int pubNodeID = pubsResult.getInt("node_id");
+        final String pubUID = pubsResult.getString("uid");
+        final String pubLabel = pubsResult.getString("label");
+        final SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("type", "publication");
+        doc.addField("id", pubUID);
+        doc.addField("label", pubLabel);
+        this.addTaxaToPublication(pubNodeID, doc);
+        this.addPhenotypesToPublication(pubNodeID, doc);
+        this.addAnnotationsToPublication(pubNodeID, doc);
+        return doc;
     }
 
     private void addTaxaToPublication(int pubNodeID, SolrInputDocument doc) throws SQLException {
@@ -97,8 +128,7 @@ public class SolrPublicationLoader {
     }
 
     private Connection getConnection() throws SQLException, ClassNotFoundException {
-        Class.forName("org.postgresql.Driver");
-        return DriverManager.getConnection("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        return ConnectionPool.getPooledConnection();
     }
 
     private SolrServer getSolrServer() throws MalformedURLException {
@@ -117,8 +147,9 @@ public class SolrPublicationLoader {
      * @throws SAXException 
      * @throws ParserConfigurationException 
      * @throws SolrServerException 
+     * @throws InterruptedException 
      */
-    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SolrServerException {
+    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SolrServerException, InterruptedException {
 //        Logger.getRootLogger().setLevel(Level.ALL);
 //        final Properties properties = new Properties();
 //        properties.load(SolrPublicationLoader.class.getResourceAsStream("connection.properties"));
@@ -126,6 +157,7 @@ public class SolrPublicationLoader {
 //            System.setProperty(entry.getKey().toString(), entry.getValue().toString());
 //        }
 
+        LoadCheckpoint.parseArguments(args);
         final SolrPublicationLoader loader = new SolrPublicationLoader();
         loader.loadPublicationsIntoSolr();
     }
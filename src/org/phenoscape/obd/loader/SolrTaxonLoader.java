@@ -3,7 +3,6 @@ package org.phenoscape.obd.loader;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -17,7 +16,7 @@ import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 import org.apache.solr.common.SolrInputDocument;
 import org.xml.sax.SAXException;
 
-public class SolrTaxonLoader {
+public class SolrTaxonLoader implements SolrLoadingPipeline.RowTranslator {
 
     /** The db-host system property should contain the name of the database server. */
     public static final String DB_HOST = "db-host";
@@ -29,71 +28,103 @@ public class SolrTaxonLoader {
     public static final String DB_PASSWORD = "db-password";
     /** The solr-url system property should contain the url for the Solr web application. */
     public static final String SOLR_URL = "solr-url";
-    private static final String TAXA_QUERY = "SELECT * FROM taxon";
+    static final String TAXA_QUERY = "SELECT * FROM taxon";
     private static final String PARENT_TAXA_QUERY = "SELECT DISTINCT parent.uid FROM taxon parent JOIN link taxon_is_a ON (taxon_is_a.node_id = ? AND taxon_is_a.object_id = parent.node_id AND taxon_is_a.predicate_id = (SELECT node_id FROM node WHERE uid = 'OBO_REL:is_a'))";
     private static final String PHENOTYPES_QUERY = "SELECT DISTINCT phenotype.uid, EXISTS (SELECT 1 FROM asserted_taxon_annotation WHERE asserted_taxon_annotation.annotation_id = taxon_annotation.annotation_id) AS asserted FROM taxon_annotation JOIN phenotype ON (phenotype.node_id = taxon_annotation.phenotype_node_id) WHERE taxon_annotation.taxon_node_id = ?";
     private static final String PUBLICATIONS_QUERY = "SELECT DISTINCT publication.uid FROM node publication JOIN annotation_source ON (annotation_source.publication_node_id = publication.node_id) JOIN taxon_annotation ON (taxon_annotation.annotation_id = annotation_source.annotation_id) WHERE taxon_annotation.taxon_node_id = ?";
 
     private Connection connection;
     private SolrServer solr;
+    private BatchingSolrIndexer indexer;
     private PreparedStatement parentTaxaQuery;
     private PreparedStatement phenotypesQuery;
     private PreparedStatement publicationsQuery;
 
-    public void loadTaxaIntoSolr() throws SQLException, ClassNotFoundException, IOException, ParserConfigurationException, SAXException, SolrServerException {
+    public void loadTaxaIntoSolr() throws SQLException, ClassNotFoundException, IOException, ParserConfigurationException, SAXException, SolrServerException, InterruptedException {
+        final LoadCheckpoint checkpoint = LoadCheckpoint.open("solr-taxa");
+        if (checkpoint.isComplete()) {
+            log().info("Already indexed according to checkpoint; skipping");
+            return;
+        }
         this.connection = this.getConnection();
-        this.solr = this.getSolrServer();
-        this.parentTaxaQuery = this.connection.prepareStatement(PARENT_TAXA_QUERY);
-        this.phenotypesQuery = this.connection.prepareStatement(PHENOTYPES_QUERY);
-        this.publicationsQuery = this.connection.prepareStatement(PUBLICATIONS_QUERY);
-        final ResultSet taxaResult = this.connection.prepareStatement(TAXA_QUERY).executeQuery();
-        int counter = 0;
-        while (taxaResult.next()) {
-            counter++;
-            final int taxonNodeID = taxaResult.getInt("node_id");
-            final String taxonUID = taxaResult.getString("uid");
-            final String taxonLabel = taxaResult.getString("label");
-            log().debug("Processing taxon " + counter + ": " + taxonUID);
-            final SolrInputDocument doc = new SolrInputDocument();
-            doc.addField("type", "taxon");
-            doc.addField("id", taxonUID);
-            doc.addField("label", taxonLabel);
-            final String rankUID = taxaResult.getString("rank_uid");
-            if (rankUID != null) {
-                doc.addField("rank", rankUID);
-            }
-            final String rankLabel = taxaResult.getString("rank_label");
-            if (rankLabel != null) {
-            	doc.addField("rank_label", rankLabel);
-            }
-            final boolean isExtinct = taxaResult.getBoolean("is_extinct");
-            doc.addField("is_extinct", isExtinct);
-            final String orderUID = taxaResult.getString("order_uid");
-            if (orderUID != null) {
-                doc.addField("order", orderUID);
-            }
-            final String orderLabel = taxaResult.getString("order_label");
-            if (orderLabel != null) {
-                doc.addField("order_label", orderLabel);
+        try {
+            this.solr = this.getSolrServer();
+            if (SolrLoadingPipeline.isEnabled()) {
+                new SolrLoadingPipeline(this.solr).run(this.connection, TAXA_QUERY, new SolrLoadingPipeline.RowTranslatorFactory() {
+                    public SolrLoadingPipeline.RowTranslator createTranslator() {
+                        return new SolrTaxonLoader();
+                    }
+                });
+                checkpoint.markComplete();
+                return;
             }
-            final boolean orderIsExtinct = taxaResult.getBoolean("order_is_extinct");
-            doc.addField("order_is_extinct", orderIsExtinct);
-            final String familyUID = taxaResult.getString("family_uid");
-            if (familyUID != null) {
-                doc.addField("family", familyUID);
+            this.indexer = new BatchingSolrIndexer(this.solr);
+            this.prepare(this.connection);
+            final ResultSet taxaResult = this.connection.prepareStatement(TAXA_QUERY).executeQuery();
+            int counter = 0;
+            while (taxaResult.next()) {
+                counter++;
+                log().debug("Processing taxon " + counter + ": " + taxaResult.getString("uid"));
+                final LoadMetrics.Timer timer = LoadMetrics.start("solr.translate");
+                final SolrInputDocument doc = this.translate(new ResultRow(taxaResult));
+                timer.stop();
+                this.indexer.add(doc);
             }
-            final String familyLabel = taxaResult.getString("family_label");
-            if (familyLabel != null) {
-                doc.addField("family_label", familyLabel);
-            }
-            final boolean familyIsExtinct = taxaResult.getBoolean("family_is_extinct");
-            doc.addField("family_is_extinct", familyIsExtinct);
-            this.addParentTaxaToTaxon(taxonNodeID, doc);
-            this.addPhenotypesToTaxon(taxonNodeID, doc);
-            this.addPublicationsToTaxon(taxonNodeID, doc);
-            this.solr.add(doc);
+            this.indexer.commit();
+            checkpoint.markComplete();
+        } finally {
+            this.connection.close();
+        }
+    }
+
+    public void prepare(Connection connection) throws SQLException {
+        this.parentTaxaQuery = connection.prepareStatement(PARENT_TAXA_QUERY);
+        this.phenotypesQuery = connection.prepareStatement(PHENOTYPES_QUERY);
+        this.publicationsQuery = connection.prepareStatement(PUBLICATIONS_QUERY);
+    }
+
+    public SolrInputDocument translate(ResultRow taxaResult) throws SQLException {
+        final int taxonNodeID = taxaResult.getInt("node_id");
+        final String taxonUID = taxaResult.getString("uid");
+        final String taxonLabel = taxaResult.getString("label");
+        final SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("type", "taxon");
+        doc.addField("id", taxonUID);
+        doc.addField("label", taxonLabel);
+        final String rankUID = taxaResult.getString("rank_uid");
+        if (rankUID != null) {
+            doc.addField("rank", rankUID);
+        }
+        final String rankLabel = taxaResult.getString("rank_label");
+        if (rankLabel != null) {
+        	doc.addField("rank_label", rankLabel);
+        }
+        final boolean isExtinct = taxaResult.getBoolean("is_extinct");
+        doc.addField("is_extinct", isExtinct);
+        final String orderUID = taxaResult.getString("order_uid");
+        if (orderUID != null) {
+            doc.addField("order", orderUID);
+        }
+        final String orderLabel = taxaResult.getString("order_label");
+        if (orderLabel != null) {
+            doc.addField("order_label", orderLabel);
+        }
+        final boolean orderIsExtinct = taxaResult.getBoolean("order_is_extinct");
+        doc.addField("order_is_extinct", orderIsExtinct);
+        final String familyUID = taxaResult.getString("family_uid");
+        if (familyUID != null) {
+            doc.addField("family", familyUID);
+        }
+        final String familyLabel = taxaResult.getString("family_label");
+        if (familyLabel != null) {
+            doc.addField("family_label", familyLabel);
         }
-        this.solr.commit();
+        final boolean familyIsExtinct = taxaResult.getBoolean("family_is_extinct");
+        doc.addField("family_is_extinct", familyIsExtinct);
+        this.addParentTaxaToTaxon(taxonNodeID, doc);
+        this.addPhenotypesToTaxon(taxonNodeID, doc);
+        this.addPublicationsToTaxon(taxonNodeID, doc);
+        return doc;
     }
     
     private void addParentTaxaToTaxon(int taxonNodeID, SolrInputDocument doc) throws SQLException {
@@ -128,8 +159,7 @@ public class SolrTaxonLoader {
     }
 
     private Connection getConnection() throws SQLException, ClassNotFoundException {
-        Class.forName("org.postgresql.Driver");
-        return DriverManager.getConnection("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        return ConnectionPool.getPooledConnection();
     }
 
     private SolrServer getSolrServer() throws MalformedURLException {
@@ -148,8 +178,9 @@ public class SolrTaxonLoader {
      * @throws SAXException 
      * @throws ParserConfigurationException 
      * @throws SolrServerException 
+     * @throws InterruptedException 
      */
-    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SolrServerException {
+    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException, ParserConfigurationException, SAXException, SolrServerException, InterruptedException {
 //                Logger.getRootLogger().setLevel(Level.ALL);
 //                final Properties properties = new Properties();
 //                properties.load(SolrTaxonLoader.class.getResourceAsStream("connection.properties"));
@@ -157,6 +188,7 @@ public class SolrTaxonLoader {
 //                    System.setProperty(entry.getKey().toString(), entry.getValue().toString());
 //                }
 
+        LoadCheckpoint.parseArguments(args);
         final SolrTaxonLoader loader = new SolrTaxonLoader();
         loader.loadTaxaIntoSolr();
     }
@@ -0,0 +1,108 @@
+package org.phenoscape.obd.loader;
+
+/**
+ * Reads the columns of one tab-delimited line at a time without splitting it. Column boundaries are found in
+ * place, only as far as the highest column asked for, and a String is only created for the columns a parser
+ * actually reads, with surrounding whitespace excluded before the copy rather than trimmed afterwards. A cursor
+ * is reused for each line of a file, and is not safe for use by multiple threads.
+ */
+public class TSVCursor {
+
+    private String line;
+    /** The index of the tab ending each column found so far, or the line length for the last column. */
+    private int[] ends = new int[16];
+    private int found = 0;
+    private boolean complete = false;
+
+    /**
+     * Move the cursor to a new line.
+     * @return this cursor
+     */
+    public TSVCursor reset(String line) {
+        this.line = line;
+        this.found = 0;
+        this.complete = false;
+        return this;
+    }
+
+    public String getLine() {
+        return this.line;
+    }
+
+    /**
+     * The number of columns in the line, counting empty trailing columns; this is the length of
+     * line.split("\\t", -1).
+     */
+    public int size() {
+        while (this.findNext()) {}
+        return this.found;
+    }
+
+    /**
+     * Return the column, or null if the line has fewer columns.
+     */
+    public String get(int column) {
+        if (!this.findThrough(column)) {
+            return null;
+        }
+        return this.line.substring(this.start(column), this.ends[column]);
+    }
+
+    /**
+     * Return the column without leading and trailing whitespace, or null if the line has fewer columns.
+     */
+    public String getTrimmed(int column) {
+        if (!this.findThrough(column)) {
+            return null;
+        }
+        int start = this.start(column);
+        int end = this.ends[column];
+        while ((start < end) && (this.line.charAt(start) <= ' ')) {
+            start++;
+        }
+        while ((end > start) && (this.line.charAt(end - 1) <= ' ')) {
+            end--;
+        }
+        return this.line.substring(start, end);
+    }
+
+    /**
+     * Return the column without leading and trailing whitespace, or null if it is empty or the line has fewer columns.
+     */
+    public String getTrimmedToNull(int column) {
+        final String value = this.getTrimmed(column);
+        return ((value == null) || (value.length() == 0)) ? null : value;
+    }
+
+    private int start(int column) {
+        return (column == 0) ? 0 : (this.ends[column - 1] + 1);
+    }
+
+    private boolean findThrough(int column) {
+        while ((this.found <= column) && this.findNext()) {}
+        return column < this.found;
+    }
+
+    /**
+     * Find the end of the next column, returning false if the last column has already been found.
+     */
+    private boolean findNext() {
+        if (this.complete) {
+            return false;
+        }
+        final int start = (this.found == 0) ? 0 : (this.ends[this.found - 1] + 1);
+        int end = this.line.indexOf('\t', start);
+        if (end < 0) {
+            end = this.line.length();
+            this.complete = true;
+        }
+        if (this.found == this.ends.length) {
+            final int[] larger = new int[this.ends.length * 2];
+            System.arraycopy(this.ends, 0, larger, 0, this.ends.length);
+            this.ends = larger;
+        }
+        this.ends[this.found++] = end;
+        return true;
+    }
+
+}
@@ -2,14 +2,11 @@ package org.phenoscape.obd.loader;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.obd.model.Graph;
 import org.obd.model.LinkStatement;
@@ -34,41 +31,45 @@ public class ZFINGOAnnotationsLoader {
         GO_RELATIONS.put("F", Vocab.GENE_TO_MOLECULAR_FUNCTION_REL_ID);
         GO_RELATIONS.put("C", Vocab.GENE_TO_CELLULAR_COMPONENT_REL_ID);
     }
+    private final TSVCursor cursor = new TSVCursor();
 
     public void loadAnnotationsData() throws IOException, SQLException, ClassNotFoundException {
-        final OBDSQLShard shard = this.initializeShard();
         final Graph graph = new Graph();
         final BufferedReader reader = this.getPublicationsData();
         String line;
         log().debug("Reading annotations");
         while ((line = reader.readLine()) != null) {
             log().trace("Reading line: " + line);
+            LoadMetrics.count("go-annotations.lines");
             final Statement statement = this.parseAnnotationLine(line);
             if (statement != null) {
                 graph.addStatement(statement);
             }
         }
         log().debug("Putting graph into OBD");
-        shard.putGraph(graph);
-        shard.disconnect();
+        final OBDSQLShard shard = this.initializeShard();
+        try {
+            GraphWriterFactory.createGraphWriter(shard).putGraph(graph);
+        } finally {
+            shard.disconnect();
+        }
     }
 
     private OBDSQLShard initializeShard() throws SQLException, ClassNotFoundException {
-        OBDSQLShard shard = new OBDSQLShard();
-        shard.connect("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        final OBDSQLShard shard = ConnectionPool.createShard();
         return shard;
     }
     
     private BufferedReader getPublicationsData() throws IOException {
         final URL annotationsURL = new URL(System.getProperty(ANNOTATIONS_URL));
-        return new BufferedReader(new InputStreamReader(new GZIPInputStream(annotationsURL.openStream())));
+        return InputReaderFactory.createReader(annotationsURL);
     }
     
-    private Statement parseAnnotationLine(String line) {
-        final String[] items = line.split("\\t", -1);
-        final String geneIDEntry = StringUtils.trimToNull(this.getItem(items, 1));
-        final String goID = StringUtils.trimToNull(this.getItem(items, 4));
-        final String goAspect = StringUtils.trimToNull(this.getItem(items, 8));
+    Statement parseAnnotationLine(String line) {
+        final TSVCursor items = this.cursor.reset(line);
+        final String geneIDEntry = items.getTrimmedToNull(1);
+        final String goID = items.getTrimmedToNull(4);
+        final String goAspect = items.getTrimmedToNull(8);
         final String relation = GO_RELATIONS.get(goAspect);
         if ((geneIDEntry != null) && (goID != null) && (relation != null)) {
             final String geneID = "ZFIN:" + geneIDEntry;
@@ -77,10 +78,6 @@ public class ZFINGOAnnotationsLoader {
         return null;
     }
     
-    private String getItem(String[] items, int index) {
-        return (index < items.length) ? items[index].trim() : null;
-    }
-    
     private Logger log() {
         return Logger.getLogger(this.getClass());
     }
@@ -2,7 +2,6 @@ package org.phenoscape.obd.loader;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.sql.SQLException;
@@ -23,39 +22,43 @@ public class ZFINPublicationsLoader {
     public static final String DB_PASSWORD = "db-password";
     /** The publications-url system property should contain the URL of the ZFIN phenotypes file. */
     public static final String PUBLICATIONS_URL = "zfin-publications-url";
+    private final TSVCursor cursor = new TSVCursor();
 
     public void loadPublicationsData() throws IOException, SQLException, ClassNotFoundException {
-        final OBDSQLShard shard = this.initializeShard();
         final Graph graph = new Graph();
         final BufferedReader reader = this.getPublicationsData();
         String line;
         while ((line = reader.readLine()) != null) {
+            LoadMetrics.count("zfin-publications.lines");
             graph.addNode(this.parsePublicationLine(line));
         }
-        shard.putGraph(graph);
-        shard.disconnect();
+        final OBDSQLShard shard = this.initializeShard();
+        try {
+            GraphWriterFactory.createGraphWriter(shard).putGraph(graph);
+        } finally {
+            shard.disconnect();
+        }
     }
 
     private OBDSQLShard initializeShard() throws SQLException, ClassNotFoundException {
-        OBDSQLShard shard = new OBDSQLShard();
-        shard.connect("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        final OBDSQLShard shard = ConnectionPool.createShard();
         return shard;
     }
 
     private BufferedReader getPublicationsData() throws IOException {
         final URL phenotypeURL = new URL(System.getProperty(PUBLICATIONS_URL));
-        return new BufferedReader(new InputStreamReader(phenotypeURL.openStream(), Charset.forName("ISO-8859-1")));
+        return InputReaderFactory.createReader(phenotypeURL, Charset.forName("ISO-8859-1"));
     }
 
     private Node parsePublicationLine(String line) {
-        final String[] items = line.split("\\t", -1);
-        final String pubID = this.getItem(items, 0);
-        final String authors = this.getItem(items, 2);
-        final String title = this.getItem(items, 3);
-        final String journal = this.getItem(items, 4); 
-        final String year = this.getItem(items, 5);
-        final String volume = this.getItem(items, 6); 
-        final String pages = this.getItem(items, 7);
+        final TSVCursor items = this.cursor.reset(line);
+        final String pubID = items.getTrimmed(0);
+        final String authors = items.getTrimmed(2);
+        final String title = items.getTrimmed(3);
+        final String journal = items.getTrimmed(4); 
+        final String year = items.getTrimmed(5);
+        final String volume = items.getTrimmed(6); 
+        final String pages = items.getTrimmed(7);
         final Node pubNode = OBDUtil.createInstanceNode("ZFIN:" + pubID, Vocab.PUBLICATION_TYPE_ID);
         pubNode.setLabel(this.createFullCitation(authors, year, title, journal, volume, pages));
         pubNode.setSourceId(Vocab.ZFIN_PUB_NAMESPACE);
@@ -76,9 +79,5 @@ public class ZFINPublicationsLoader {
         final ZFINPublicationsLoader loader = new ZFINPublicationsLoader();
         loader.loadPublicationsData();
     }
-    
-    private String getItem(String[] items, int index) {
-        return (index < items.length) ? items[index].trim() : null;
-    }
 
 }
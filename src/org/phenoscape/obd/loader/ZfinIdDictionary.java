@@ -0,0 +1,250 @@
+package org.phenoscape.obd.loader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a small integer code to each ZFIN ID, so that lookup tables over genes, genotypes, morpholinos and
+ * environments can be arrays indexed by code rather than maps holding their own copies of the ID strings.
+ * IDs of the usual form ZFIN:ZDB-TYPE-YYMMDD-N are not stored as strings at all: the type, date and serial
+ * number are packed into a long, which is the key of a primitive hash table, and the ID string is rebuilt
+ * when asked for. Looking up such an ID doesn't allocate. Other IDs are kept in an ordinary map.
+ */
+public class ZfinIdDictionary {
+
+    private static final String PREFIX = "ZFIN:ZDB-";
+    private static final int MAX_TYPES = 1 << 11;
+    private static final long MAX_SERIAL = 0xFFFFFFFFL;
+    private static final int NOT_FOUND = -1;
+
+    private final List<String> types = new ArrayList<String>();
+    /** Open addressing table from packed ID to code; a slot is empty when its code is NOT_FOUND. */
+    private long[] slotKeys = new long[1024];
+    private int[] slotCodes = newSlotCodes(1024);
+    /** The packed ID for each code, or NOT_FOUND for IDs kept as strings. */
+    private long[] codeKeys = new long[1024];
+    private int size = 0;
+    private final Map<String, Integer> otherCodes = new HashMap<String, Integer>();
+    private final Map<Integer, String> otherIDs = new HashMap<Integer, String>();
+
+    /**
+     * Return the code for the ID, assigning a new code if the ID hasn't been seen before.
+     */
+    public int intern(String id) {
+        final long key = this.pack(id, true);
+        if (key == NOT_FOUND) {
+            final Integer code = this.otherCodes.get(id);
+            if (code != null) {
+                return code;
+            }
+            final int newCode = this.addCode(NOT_FOUND);
+            this.otherCodes.put(id, newCode);
+            this.otherIDs.put(newCode, id);
+            return newCode;
+        }
+        final int slot = this.findSlot(key);
+        if (this.slotCodes[slot] != NOT_FOUND) {
+            return this.slotCodes[slot];
+        }
+        final int code = this.addCode(key);
+        this.slotKeys[slot] = key;
+        this.slotCodes[slot] = code;
+        if ((this.size - this.otherCodes.size()) * 2 > this.slotCodes.length) {
+            this.rehash();
+        }
+        return code;
+    }
+
+    /**
+     * Return the code for the ID, or -1 if it hasn't been interned or is null.
+     */
+    public int lookup(String id) {
+        if (id == null) {
+            return NOT_FOUND;
+        }
+        final long key = this.pack(id, false);
+        if (key == NOT_FOUND) {
+            final Integer code = this.otherCodes.get(id);
+            return (code != null) ? code : NOT_FOUND;
+        }
+        return this.slotCodes[this.findSlot(key)];
+    }
+
+    /**
+     * Return the ID for the code, or null if the code is -1.
+     */
+    public String getID(int code) {
+        if (code == NOT_FOUND) {
+            return null;
+        }
+        final long key = this.codeKeys[code];
+        if (key == NOT_FOUND) {
+            return this.otherIDs.get(code);
+        }
+        final String type = this.types.get((int)(key >>> 52));
+        final String date = String.valueOf(((key >>> 32) & 0xFFFFF) + 1000000);
+        final StringBuffer id = new StringBuffer(PREFIX.length() + type.length() + 20);
+        id.append(PREFIX).append(type).append('-').append(date, 1, 7).append('-').append(key & MAX_SERIAL);
+        return id.toString();
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private int addCode(long key) {
+        if (this.size == this.codeKeys.length) {
+            final long[] larger = new long[this.codeKeys.length * 2];
+            System.arraycopy(this.codeKeys, 0, larger, 0, this.size);
+            this.codeKeys = larger;
+        }
+        this.codeKeys[this.size] = key;
+        return this.size++;
+    }
+
+    private int findSlot(long key) {
+        final int mask = this.slotCodes.length - 1;
+        int slot = (int)((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while ((this.slotCodes[slot] != NOT_FOUND) && (this.slotKeys[slot] != key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        final long[] oldKeys = this.slotKeys;
+        final int[] oldCodes = this.slotCodes;
+        this.slotKeys = new long[oldKeys.length * 2];
+        this.slotCodes = newSlotCodes(oldCodes.length * 2);
+        for (int i = 0; i < oldCodes.length; i++) {
+            if (oldCodes[i] != NOT_FOUND) {
+                final int slot = this.findSlot(oldKeys[i]);
+                this.slotKeys[slot] = oldKeys[i];
+                this.slotCodes[slot] = oldCodes[i];
+            }
+        }
+    }
+
+    private static int[] newSlotCodes(int length) {
+        final int[] codes = new int[length];
+        Arrays.fill(codes, NOT_FOUND);
+        return codes;
+    }
+
+    /**
+     * Pack an ID of the form ZFIN:ZDB-TYPE-YYMMDD-N into 11 bits of type, 20 bits of date and 32 bits of serial
+     * number, returning -1 if the ID isn't of that form, or has a type not yet seen and addType is false. Only
+     * IDs which getID rebuilds exactly are packed, so a serial number with leading zeros is not.
+     */
+    private long pack(String id, boolean addType) {
+        if (!id.startsWith(PREFIX)) {
+            return NOT_FOUND;
+        }
+        final int typeStart = PREFIX.length();
+        final int typeEnd = id.indexOf('-', typeStart);
+        if ((typeEnd <= typeStart) || (id.length() < typeEnd + 9) || (id.charAt(typeEnd + 7) != '-')) {
+            return NOT_FOUND;
+        }
+        long date = 0;
+        for (int i = typeEnd + 1; i < typeEnd + 7; i++) {
+            final char c = id.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return NOT_FOUND;
+            }
+            date = (date * 10) + (c - '0');
+        }
+        final int serialStart = typeEnd + 8;
+        final int serialLength = id.length() - serialStart;
+        if ((serialLength > 10) || ((serialLength > 1) && (id.charAt(serialStart) == '0'))) {
+            return NOT_FOUND;
+        }
+        long serial = 0;
+        for (int i = serialStart; i < id.length(); i++) {
+            final char c = id.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return NOT_FOUND;
+            }
+            serial = (serial * 10) + (c - '0');
+        }
+        if (serial > MAX_SERIAL) {
+            return NOT_FOUND;
+        }
+        final int type = this.findType(id, typeStart, typeEnd, addType);
+        if (type == NOT_FOUND) {
+            return NOT_FOUND;
+        }
+        return ((long)type << 52) | (date << 32) | serial;
+    }
+
+    /**
+     * There are only a few dozen ZFIN ID types, so a linear search of them is quick.
+     */
+    private int findType(String id, int start, int end, boolean add) {
+        final int length = end - start;
+        for (int i = 0; i < this.types.size(); i++) {
+            final String type = this.types.get(i);
+            if ((type.length() == length) && id.regionMatches(start, type, 0, length)) {
+                return i;
+            }
+        }
+        if (!add || (this.types.size() == MAX_TYPES)) {
+            return NOT_FOUND;
+        }
+        this.types.add(id.substring(start, end));
+        return this.types.size() - 1;
+    }
+
+    /**
+     * A table from ID code to ID code.
+     */
+    public static class IDTable {
+
+        private int[] values = newSlotCodes(256);
+
+        public void put(int key, int value) {
+            if (key >= this.values.length) {
+                final int[] larger = newSlotCodes(Math.max(key + 1, this.values.length * 2));
+                System.arraycopy(this.values, 0, larger, 0, this.values.length);
+                this.values = larger;
+            }
+            this.values[key] = value;
+        }
+
+        /**
+         * Return the value for the key, or -1 if there is none.
+         */
+        public int get(int key) {
+            return ((key >= 0) && (key < this.values.length)) ? this.values[key] : NOT_FOUND;
+        }
+
+    }
+
+    /**
+     * A table from ID code to text.
+     */
+    public static class TextTable {
+
+        private String[] values = new String[256];
+
+        public void put(int key, String value) {
+            if (key >= this.values.length) {
+                final String[] larger = new String[Math.max(key + 1, this.values.length * 2)];
+                System.arraycopy(this.values, 0, larger, 0, this.values.length);
+                this.values = larger;
+            }
+            this.values[key] = value;
+        }
+
+        /**
+         * Return the value for the key, or null if there is none.
+         */
+        public String get(int key) {
+            return ((key >= 0) && (key < this.values.length)) ? this.values[key] : null;
+        }
+
+    }
+
+}
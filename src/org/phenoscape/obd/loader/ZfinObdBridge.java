@@ -1,21 +1,26 @@
 package org.phenoscape.obd.loader;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
-import org.bbop.dataadapter.DataAdapterException;
 import org.obd.model.CompositionalDescription;
 import org.obd.model.CompositionalDescription.Predicate;
 import org.obd.model.Graph;
@@ -25,13 +30,8 @@ import org.obd.model.NodeAlias;
 import org.obd.model.NodeAlias.Scope;
 import org.obd.query.Shard;
 import org.obd.query.impl.OBDSQLShard;
-import org.obo.dataadapter.OBOAdapter;
-import org.obo.dataadapter.OBOFileAdapter;
-import org.obo.datamodel.Dbxref;
-import org.obo.datamodel.IdentifiedObject;
 import org.obo.datamodel.OBOClass;
 import org.obo.datamodel.OBOSession;
-import org.obo.util.TermUtil;
 import org.purl.obo.vocab.RelationVocabulary;
 
 public class ZfinObdBridge {
@@ -60,6 +60,13 @@ public class ZfinObdBridge {
     public static final String PHENO_ENVIRONMENT_URL = "pheno-environment-url";
     /** The wildtype-lines-url system property should contain the URL of the ZFIN wildtype lines file. */
     public static final String WILDTYPE_LINES_URL = "wildtype-lines-url";
+    /** The zfin-chunk-size system property may contain the number of annotations to accumulate before writing them to the database. The whole file is written at once if unset. */
+    public static final String CHUNK_SIZE = "zfin-chunk-size";
+    /** The zfin-parser-threads system property may contain the number of threads used to parse the phenotype file. The file is parsed by the loading thread if unset. */
+    public static final String PARSER_THREADS = "zfin-parser-threads";
+    private static final int LINES_PER_BATCH = 5000;
+    private static final String CHECKPOINT_LINE = "line";
+    private static final String CHECKPOINT_HASH = "input-hash";
 
 
 
@@ -68,55 +75,170 @@ public class ZfinObdBridge {
     private static final RelationVocabulary relationVocabulary = new RelationVocabulary();
 
     private Shard shard;
+    private GraphWriter writer;
     private Graph graph;
     private OBOSession oboSession;
 
-    private Map<String, String> zfinGeneIdToNameMap;
-    private Map<String, String> zfinGeneIdToSymbolMap;
-    private Map<String, String> envToMorpholinoMap;
-    private Map<String, String> morpholinoToGeneMap;
-    private Map<String, String> genotypeToGeneMap;
-    private Map<String, String> morpholinoIdToLabelMap;
-    private List<String> wildtypeLines;
+    /*
+     * The ZFIN lookup tables are indexed by the codes the dictionary assigns to ZFIN IDs
+     */
+    private ZfinIdDictionary zfinIds;
+    private ZfinIdDictionary.TextTable zfinGeneIdToNameMap;
+    private ZfinIdDictionary.TextTable zfinGeneIdToSymbolMap;
+    private ZfinIdDictionary.IDTable envToMorpholinoMap;
+    private ZfinIdDictionary.IDTable morpholinoToGeneMap;
+    private ZfinIdDictionary.IDTable genotypeToGeneMap;
+    private ZfinIdDictionary.TextTable morpholinoIdToLabelMap;
+    private BitSet wildtypeLines;
+    /*
+     * Genes and genotypes (by ID code) and phenotypes already added to a graph, so that each is only stored once
+     */
+    private BitSet emittedGenes;
+    private BitSet emittedGenotypes;
+    private Set<String> emittedPhenotypeIds;
+    private int duplicateGenes = 0;
+    private int duplicateGenotypes = 0;
+    private int duplicatePhenotypes = 0;
 
     /*
      * This map has been created to keep track of main IDs and their mapping to alternate IDs
      * These are stored in key=ALTERNATE-ID value=ID format 
      */
     private Map<String, String> id2AlternateIdMap;
+    /*
+     * Equivalent TAO term for each ZFA term, taken from the first TAO dbxref of the ZFA term
+     */
+    private Map<String, String> zfaToTaoMap;
+    private final AtomicInteger taoLookupMisses = new AtomicInteger();
 
+    /**
+     * Create a bridge, reading the ZFIN files at the same time as the ontologies are loaded.
+     */
     public ZfinObdBridge() throws SQLException, ClassNotFoundException, IOException {
-        super();
+        // arguments are evaluated in order, so the files are being read while the ontologies load
+        this(startReadingZfinFiles(), OntologyLoader.getIndex());
         this.shard = this.initializeShard();
+        this.writer = GraphWriterFactory.createGraphWriter(this.shard);
+    }
+
+    /**
+     * Fill the lookup tables from each ZFIN file in turn, once it has been read. The order matters, because
+     * the missing markers file overrides genotype to gene mappings from the genotype file.
+     */
+    private ZfinObdBridge(List<Future<List<String[]>>> zfinFiles, OntologyIndex index) throws IOException {
+        this(index);
+        this.loadWildtypeLines(getRecords(zfinFiles.get(0)));
+        this.createZfinNameDirectory(getRecords(zfinFiles.get(1)));
+        this.mapEnvToMorpholino(getRecords(zfinFiles.get(2)));
+        this.mapMorpholinoToGene(getRecords(zfinFiles.get(3)));
+        this.mapGenotypeToGene(getRecords(zfinFiles.get(4)));
+        this.mapGenotypeToGeneViaMissingMarkers(getRecords(zfinFiles.get(5)));
+    }
+
+    /**
+     * Create a bridge using the given ontologies, without connecting to the database or reading the ZFIN files.
+     */
+    ZfinObdBridge(OntologyIndex index) {
+        super();
         this.graph = new Graph();
-        this.setOboSession(this.loadOBOSession());
+        this.setOboSession(index.getSession());
+
+        this.id2AlternateIdMap = index.getAlternateIDMappings();
+        this.zfaToTaoMap = index.getDbxrefMappings("TAO");
+        log().debug("Indexed " + this.zfaToTaoMap.size() + " TAO equivalents");
+        this.zfinIds = new ZfinIdDictionary();
+        this.wildtypeLines = new BitSet();
+        this.zfinGeneIdToNameMap = new ZfinIdDictionary.TextTable();
+        this.zfinGeneIdToSymbolMap = new ZfinIdDictionary.TextTable();
+        this.envToMorpholinoMap = new ZfinIdDictionary.IDTable();
+        this.morpholinoToGeneMap = new ZfinIdDictionary.IDTable();
+        this.genotypeToGeneMap = new ZfinIdDictionary.IDTable();
+        this.morpholinoIdToLabelMap = new ZfinIdDictionary.TextTable();
+        this.emittedGenes = new BitSet();
+        this.emittedGenotypes = new BitSet();
+        this.emittedPhenotypeIds = new HashSet<String>();
+    }
 
-        this.id2AlternateIdMap = createAltIdMappings(this.getOboSession());
-        this.wildtypeLines = new ArrayList<String>();
-        this.zfinGeneIdToNameMap = new HashMap<String, String>();
-        this.zfinGeneIdToSymbolMap = new HashMap<String, String>();
-        this.envToMorpholinoMap = new HashMap<String, String>();
-        this.morpholinoToGeneMap = new HashMap<String, String>();
-        this.genotypeToGeneMap = new HashMap<String, String>();
-        this.morpholinoIdToLabelMap = new HashMap<String, String>();
+    /**
+     * Start a thread reading each of the ZFIN files into a list of records holding the columns used from each line.
+     * The files are independent, and reading them mostly waits on the network or disk.
+     */
+    private static List<Future<List<String[]>>> startReadingZfinFiles() {
+        final List<ZfinFileReader> readers = new ArrayList<ZfinFileReader>();
+        readers.add(new ZfinFileReader(WILDTYPE_LINES_URL) {
+            String[] parse(TSVCursor fields) {
+                return new String[] {normalizetoZfin(fields.getTrimmed(0))};
+            }
+        });
+        readers.add(new ZfinFileReader(GENE_NAME_URL) {
+            String[] parse(TSVCursor lineComps) {
+                if (lineComps.getLine().startsWith("ZDB-GENE")) {
+                    return new String[] {normalizetoZfin(lineComps.get(0)), lineComps.get(1), lineComps.get(2)};
+                }
+                return null;
+            }
+        });
+        readers.add(new ZfinFileReader(PHENO_ENVIRONMENT_URL) {
+            String[] parse(TSVCursor lComps) {
+                if (MORPHOLINO.equals(lComps.get(1))) {
+                    return new String[] {normalizetoZfin(lComps.get(0)), normalizetoZfin(lComps.get(2))};
+                }
+                return null;
+            }
+        });
+        readers.add(new ZfinFileReader(MORPHOLINO_URL) {
+            String[] parse(TSVCursor lComps) {
+                return new String[] {normalizetoZfin(lComps.get(0)), normalizetoZfin(lComps.get(2)), lComps.get(3)};
+            }
+        });
+        readers.add(new ZfinFileReader(GENOTYPE_URL) {
+            String[] parse(TSVCursor comps) {
+                final String geneColumn = comps.get(9);
+                if ((geneColumn != null) && (geneColumn.length() > 0)) {
+                    return new String[] {normalizetoZfin(comps.get(0)), normalizetoZfin(geneColumn)};
+                }
+                return null;
+            }
+        });
+        readers.add(new ZfinFileReader(MISSING_MARKERS_URL) {
+            String[] parse(TSVCursor comps) {
+                final String geneColumn = comps.get(4);
+                if (geneColumn != null && geneColumn.trim().length() > 0) {
+                    return new String[] {normalizetoZfin(comps.get(0)), normalizetoZfin(geneColumn)};
+                }
+                return null;
+            }
+        });
+        final ExecutorService executor = Executors.newFixedThreadPool(readers.size());
+        final List<Future<List<String[]>>> files = new ArrayList<Future<List<String[]>>>();
+        for (ZfinFileReader reader : readers) {
+            files.add(executor.submit(reader));
+        }
+        // the threads finish once the files have been read
+        executor.shutdown();
+        return files;
+    }
 
-        this.loadWildtypeLines();
-        this.createZfinNameDirectory();
-        this.mapEnvToMorpholino();
-        this.mapMorpholinoToGene();
-        this.mapGenotypeToGene();
-        this.mapGenotypeToGeneViaMissingMarkers();
+    private static List<String[]> getRecords(Future<List<String[]>> file) throws IOException {
+        try {
+            return file.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading ZFIN files");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
     }
 
-    private void loadWildtypeLines() throws IOException {
-        final URL wildtypeLinesURL = new URL(System.getProperty(WILDTYPE_LINES_URL));
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(wildtypeLinesURL.openStream()));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            final String[] fields = line.split("\\t");
-            this.wildtypeLines.add(this.normalizetoZfin(fields[0].trim()));
+    private void loadWildtypeLines(List<String[]> records) {
+        for (String[] record : records) {
+            this.wildtypeLines.set(this.zfinIds.intern(record[0]));
         }
-        reader.close();
     }
 
     public OBOSession getOboSession() {
@@ -127,134 +249,56 @@ public class ZfinObdBridge {
         this.oboSession = oboSession;
     }
 
-    private OBOSession loadOBOSession() {
-        final OBOFileAdapter fileAdapter = new OBOFileAdapter();
-        OBOFileAdapter.OBOAdapterConfiguration config = new OBOFileAdapter.OBOAdapterConfiguration();
-        config.setReadPaths(this.getOntologyPaths());
-        config.setBasicSave(false);
-        config.setAllowDangling(true);
-        config.setFollowImports(false);
-        try {
-            return fileAdapter.doOperation(OBOAdapter.READ_ONTOLOGY, config, null);
-        } catch (DataAdapterException e) {
-            log().fatal("Failed to load ontologies", e);
-            return null;
-        }
-    }
-
-    private List<String> getOntologyPaths() {
-        List<String> paths = new ArrayList<String>();
-        File ontCache = new File(System.getProperty(ONTOLOGY_DIR));
-        for (File f : ontCache.listFiles()) {
-            paths.add(f.getAbsolutePath());
-            log().trace(paths.toString());
-        }
-        return paths;
-    }
-
     private Shard initializeShard() throws SQLException, ClassNotFoundException {
-        OBDSQLShard obdsql = new OBDSQLShard();
-        obdsql.connect("jdbc:postgresql://" + System.getProperty(DB_HOST) + "/" + System.getProperty(DB_NAME), System.getProperty(DB_USER), System.getProperty(DB_PASSWORD));
+        final OBDSQLShard obdsql = ConnectionPool.createShard();
         return obdsql;
     }
 
-    private void createZfinNameDirectory() throws IOException{
-        URL geneticMarkersURL = new URL(System.getProperty(GENE_NAME_URL));
-        BufferedReader reader = new BufferedReader(new InputStreamReader(geneticMarkersURL.openStream()));
-        String line, zfinId, zfinName, zfinAlias; 
-        while((line = reader.readLine()) != null){
-            if(line.startsWith("ZDB-GENE")){
-                String[] lineComps = line.split("\\t");
-                zfinId = normalizetoZfin(lineComps[0]);
-                zfinAlias = lineComps[1];
-                zfinName = lineComps[2];
-                this.zfinGeneIdToNameMap.put(zfinId, zfinName);
-                this.zfinGeneIdToSymbolMap.put(zfinId, zfinAlias);
-            }
+    private void createZfinNameDirectory(List<String[]> records) {
+        for (String[] record : records) {
+            final int zfinCode = this.zfinIds.intern(record[0]);
+            this.zfinGeneIdToSymbolMap.put(zfinCode, record[1]);
+            this.zfinGeneIdToNameMap.put(zfinCode, record[2]);
         }
-        reader.close();
     }
 
-    private Map<String, String> createAltIdMappings(OBOSession session) {
-        Map<String, String> altIDMappings = new HashMap<String, String>();
-        log().trace("Called alt_id search");
-        final Collection<IdentifiedObject> terms = session.getObjects();
-        for (IdentifiedObject object : terms) {
-            if (object instanceof OBOClass) {
-                final OBOClass term = (OBOClass)object;
-                if (term.getSecondaryIDs() != null && term.getSecondaryIDs().size() > 0) {
-                    for(String altID : term.getSecondaryIDs())
-                        altIDMappings.put(altID, term.getID());
-                }
-            }
+    private void mapEnvToMorpholino(List<String[]> records) {
+        for (String[] record : records) {
+            this.envToMorpholinoMap.put(this.zfinIds.intern(record[0]), this.zfinIds.intern(record[1]));
         }
-        return altIDMappings;
     }
 
-    private void mapEnvToMorpholino() throws IOException{
-        String line, environmentId, morpholinoId;
-
-        URL phenoEnvironmentURL = new URL(System.getProperty(PHENO_ENVIRONMENT_URL));
-        BufferedReader reader = new BufferedReader(new InputStreamReader(phenoEnvironmentURL.openStream()));
-
-        while((line = reader.readLine()) != null){
-            String[] lComps = line.split("\\t");
-            if(lComps[1].equals(MORPHOLINO)){
-                environmentId = normalizetoZfin(lComps[0]);
-                morpholinoId = this.normalizetoZfin(lComps[2]);
-                this.envToMorpholinoMap.put(environmentId, morpholinoId);
-            }
+    private void mapMorpholinoToGene(List<String[]> records) {
+        for (String[] record : records) {
+            final int morpholinoCode = this.zfinIds.intern(record[1]);
+            this.morpholinoToGeneMap.put(morpholinoCode, this.zfinIds.intern(record[0]));
+            this.morpholinoIdToLabelMap.put(morpholinoCode, record[2]);
         }
-
-        reader.close();
-    }
-
-    private void mapMorpholinoToGene() throws IOException{
-        String line, geneId, morpholinoId, morpholinoLabel;
-
-        URL morpholinoURL = new URL(System.getProperty(MORPHOLINO_URL));
-        BufferedReader reader = new BufferedReader(new InputStreamReader(morpholinoURL.openStream()));
-
-        while((line = reader.readLine()) != null){
-            String[] lComps = line.split("\\t");
-            geneId = this.normalizetoZfin(lComps[0]);
-            morpholinoId = this.normalizetoZfin(lComps[2]);
-            morpholinoLabel = lComps[3];
-            this.morpholinoToGeneMap.put(morpholinoId, geneId);
-            this.morpholinoIdToLabelMap.put(morpholinoId, morpholinoLabel);
-        }
-
-        reader.close();
     }
 
     /**
      * Finds the equivalent TAO term for the given ZFA term
      * @param entityId
-     * @return
+     * @return the TAO ID, or null if the term has no TAO equivalent
      */
     private String getEquivalentTAOID(String entityId) {
-        for(OBOClass oboClass : TermUtil.getTerms(oboSession)){
-            if(oboClass.getID().equals(entityId)){
-                for(Dbxref dbx : oboClass.getDbxrefs()){
-                    if(dbx.getDatabase().toString().equals("TAO")){
-                        return dbx.getDatabase().toString() + ":" + dbx.getDatabaseID().toString();
-                    }
-                }
-            }
+        final String taoID = this.zfaToTaoMap.get(entityId);
+        if (taoID == null) {
+            this.taoLookupMisses.incrementAndGet();
         }
-        return "Not found";
+        return taoID;
     }
 
-    private CompositionalDescription createPhenotype(String[] dataColumns) {
+    CompositionalDescription createPhenotype(TSVCursor dataColumns) {
         String aggregateEntityId, qualityId, componentEntityId, ab,dependentEntityID, dependentSubEntityID;
         CompositionalDescription componentAggregateDesc = null;
 
-        aggregateEntityId = StringUtils.trimToNull(dataColumns[4]);
-        qualityId = StringUtils.trimToNull(dataColumns[6]);
-        componentEntityId = StringUtils.trimToNull(dataColumns[5]);
-        ab = StringUtils.trimToNull(dataColumns[7]);
-        dependentEntityID = StringUtils.trimToNull(dataColumns[8]);
-        dependentSubEntityID = StringUtils.trimToNull(dataColumns[9]);
+        aggregateEntityId = dataColumns.getTrimmedToNull(4);
+        qualityId = dataColumns.getTrimmedToNull(6);
+        componentEntityId = dataColumns.getTrimmedToNull(5);
+        ab = dataColumns.getTrimmedToNull(7);
+        dependentEntityID = dataColumns.getTrimmedToNull(8);
+        dependentSubEntityID = dataColumns.getTrimmedToNull(9);
 
         if (aggregateEntityId != null) {
             aggregateEntityId = replaceZfinEntityWithTaoEntity(aggregateEntityId);
@@ -312,7 +356,7 @@ public class ZfinObdBridge {
 
     private String replaceZfinEntityWithTaoEntity(String zfinEntity) {
         String taoEntity = getEquivalentTAOID(zfinEntity);
-        String target = taoEntity.equals("Not found")? zfinEntity : taoEntity;
+        String target = (taoEntity == null) ? zfinEntity : taoEntity;
         return target;
     }
 
@@ -338,116 +382,347 @@ public class ZfinObdBridge {
         return patoId;
     }
 
-    private void mapGenotypeToGene() throws IOException {
-        String lineFromGenotypeToPhenotypeFile;
-        String genotypeId, geneId = null;
-        URL genotypeURL = new URL(System.getProperty(GENOTYPE_URL));
+    private void mapGenotypeToGene(List<String[]> records) {
+        for (String[] record : records) {
+            this.genotypeToGeneMap.put(this.zfinIds.intern(record[0]), this.zfinIds.intern(record[1]));
+        }
+    }
+
+    private void mapGenotypeToGeneViaMissingMarkers(List<String[]> records) {
+        for (String[] record : records) {
+            this.genotypeToGeneMap.put(this.zfinIds.intern(record[0]), this.zfinIds.intern(record[1]));
+        }
+    }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(genotypeURL.openStream()));
-        while ((lineFromGenotypeToPhenotypeFile = reader.readLine()) != null) {
-            String[] comps = lineFromGenotypeToPhenotypeFile.split("\\t");
-            genotypeId = normalizetoZfin(comps[0]);
-            if(comps.length > 9){
-                geneId = normalizetoZfin(comps[9]);
-                this.genotypeToGeneMap.put(genotypeId, geneId);
+    public void loadZfinData() throws MalformedURLException, IOException, SQLException {
+        try {
+            this.loadPhenotypeFile();
+        } finally {
+            this.shard.disconnect();
+        }
+    }
+
+    private void loadPhenotypeFile() throws MalformedURLException, IOException, SQLException {
+        final LoadCheckpoint checkpoint = LoadCheckpoint.open("zfin");
+        if (checkpoint.isComplete()) {
+            log().info("ZFIN data already loaded according to checkpoint; skipping");
+            return;
+        }
+        // lines up to the checkpoint were written by an earlier run; their genes, genotypes and phenotypes are only remembered
+        final int resumeLine = checkpoint.getInt(CHECKPOINT_LINE, 0);
+        final MessageDigest digest = LoadCheckpoint.createDigest();
+        int lineNumber = 0;
+        final int chunkSize = Integer.getInteger(CHUNK_SIZE, 0);
+        if (chunkSize <= 0) {
+            log().warn("The ZFIN phenotype file is written in one graph because " + CHUNK_SIZE + " is not set, so it can only be checkpointed once complete; a failed load will restart from the first line even with " + LoadCheckpoint.RESUME_ARGUMENT);
+        }
+        int annotationsInChunk = 0;
+        final URL phenotypeURL = new URL(System.getProperty(PHENOTYPE_URL));
+        BufferedReader br1 = InputReaderFactory.createReader(phenotypeURL);
+        final PhenotypeFileParser parser = new PhenotypeFileParser(br1, Integer.getInteger(PARSER_THREADS, 1));
+        try {
+            ParsedBatch batch;
+            while ((batch = parser.next()) != null) {
+                for (int i = 0; i < batch.lines.size(); i++) {
+                    final String phenoFileLine = batch.lines.get(i);
+                    lineNumber++;
+                    LoadMetrics.count("zfin.lines");
+                    digest.update(phenoFileLine.getBytes("UTF-8"));
+                    digest.update((byte)'\n');
+                    if ((lineNumber == resumeLine) && !LoadCheckpoint.currentHash(digest).equals(checkpoint.get(CHECKPOINT_HASH))) {
+                        throw new IOException("Phenotype file has changed since the checkpoint; rerun without " + LoadCheckpoint.RESUME_ARGUMENT);
+                    }
+                    final ParsedLine parsed = batch.parsedLines.get(i);
+                    if (parsed == null) {
+                        continue;
+                    }
+                    if (lineNumber <= resumeLine) {
+                        this.emittedGenes.set(parsed.geneCode);
+                        this.emittedGenotypes.set(parsed.genotypeCode);
+                        this.emittedPhenotypeIds.add(parsed.phenotype.getId());
+                        continue;
+                    }
+                    final String genotypeId = this.zfinIds.getID(parsed.genotypeCode);
+                    final CompositionalDescription phenotype = parsed.phenotype;
+                    if (this.emittedPhenotypeIds.add(phenotype.getId())) {
+                        graph.addStatements(phenotype);
+                    } else {
+                        this.duplicatePhenotypes++;
+                    }
+                    if (!this.emittedGenes.get(parsed.geneCode)) {
+                        this.emittedGenes.set(parsed.geneCode);
+                        this.addGene(this.zfinIds.getID(parsed.geneCode));
+                    } else {
+                        this.duplicateGenes++;
+                    }
+                    if (!this.emittedGenotypes.get(parsed.genotypeCode)) {
+                        this.emittedGenotypes.set(parsed.genotypeCode);
+                        this.addGenotype(genotypeId, parsed.genotype, this.zfinIds.getID(parsed.geneCode), parsed.isMorpholino);
+                    } else {
+                        this.duplicateGenotypes++;
+                    }
+                    final LinkStatement annotation = new LinkStatement(genotypeId, Vocab.GENOTYPE_PHENOTYPE_REL_ID, phenotype.getId());
+                    if (parsed.publicationID != null) {
+                        annotation.addSubLinkStatement(Vocab.POSITED_BY_REL_ID, parsed.publicationID);  
+                    } else {
+                        log().error("No publication for annotation: " + phenoFileLine);
+                    }
+                    this.graph.addStatement(annotation);
+                    annotationsInChunk++;
+                    LoadMetrics.count("zfin.annotations");
+                    if ((chunkSize > 0) && (annotationsInChunk >= chunkSize)) {
+                        this.flushGraph();
+                        checkpoint.update(CHECKPOINT_LINE, String.valueOf(lineNumber), CHECKPOINT_HASH, LoadCheckpoint.currentHash(digest));
+                        annotationsInChunk = 0;
+                    }
+                }
             }
+        } finally {
+            parser.close();
+            br1.close();
         }
+        if (lineNumber < resumeLine) {
+            throw new IOException("Phenotype file is shorter than the checkpoint; rerun without " + LoadCheckpoint.RESUME_ARGUMENT);
+        }
+        this.flushGraph();
+        checkpoint.markComplete();
+        log().info("Entities without a TAO equivalent: " + this.taoLookupMisses);
+        log().info("Suppressed duplicate emission of " + this.duplicateGenes + " genes, " + this.duplicateGenotypes + " genotypes and " + this.duplicatePhenotypes + " phenotypes");
+        LoadMetrics.count("zfin.duplicates.genes", this.duplicateGenes);
+        LoadMetrics.count("zfin.duplicates.genotypes", this.duplicateGenotypes);
+        LoadMetrics.count("zfin.duplicates.phenotypes", this.duplicatePhenotypes);
+    }
 
-        reader.close();
+    /**
+     * Look up the genotype and gene of a line of the phenotype file, and create its phenotype. This only reads the
+     * lookup tables, so lines can be parsed by several threads at once.
+     * @return the parsed line, or null if the line is malformed or has no known genotype and gene
+     */
+    private ParsedLine parseLine(TSVCursor columns) {
+        if(columns.size() < 10){ 
+            log().info("Skipping line because of inadequate number of tab delimited components: " + columns.getLine());
+            return null;
+        }
+        final ParsedLine parsed = new ParsedLine();
+        final String genotypeId = columns.getTrimmed(0);
+        parsed.genotype = columns.getTrimmed(1);
+        parsed.publicationID = columns.getTrimmed(10);
+        final String environmentId = columns.getTrimmed(11);
+
+        parsed.genotypeCode = this.zfinIds.lookup(genotypeId);
+        if ((parsed.genotypeCode >= 0) && this.wildtypeLines.get(parsed.genotypeCode)) {
+            //FIXME this is a dangerous assumption
+            parsed.isMorpholino = true;
+            parsed.genotypeCode = this.envToMorpholinoMap.get(this.zfinIds.lookup(environmentId));
+            parsed.genotype = this.morpholinoIdToLabelMap.get(parsed.genotypeCode);
+            parsed.geneCode = this.morpholinoToGeneMap.get(parsed.genotypeCode);
+        } else {
+            parsed.isMorpholino = false;
+            parsed.geneCode = this.genotypeToGeneMap.get(parsed.genotypeCode);
+        }
+        if ((parsed.geneCode < 0) || (parsed.genotypeCode < 0)) {
+            return null;
+        }
+        parsed.phenotype = this.createPhenotype(columns);
+        return parsed;
     }
 
-    private void mapGenotypeToGeneViaMissingMarkers() throws IOException {
-        String lineFromFile;
-        String genotypeId, geneId;
-        URL missingMarkersURL = new URL(System.getProperty(MISSING_MARKERS_URL));
+    private ParsedBatch parseBatch(List<String> lines) {
+        final TSVCursor columns = new TSVCursor();
+        final List<ParsedLine> parsedLines = new ArrayList<ParsedLine>(lines.size());
+        for (String line : lines) {
+            parsedLines.add(this.parseLine(columns.reset(line)));
+        }
+        return new ParsedBatch(lines, parsedLines);
+    }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(missingMarkersURL.openStream()));
-        while((lineFromFile = reader.readLine()) != null){
-            String[] comps = lineFromFile.split("\\t");
-            genotypeId = normalizetoZfin(comps[0]);
-            if(comps[4] != null && comps[4].trim().length() > 0){
-                geneId = normalizetoZfin(comps[4]);
-                this.genotypeToGeneMap.put(genotypeId, geneId);
+    private void addGene(String geneId) {
+        final Node geneNode = OBDUtil.createInstanceNode(geneId, Vocab.GENE_TYPE_ID);
+        geneNode.setSourceId(Vocab.GENE_NAMESPACE);
+        final int geneCode = this.zfinIds.lookup(geneId);
+        final String geneName = this.zfinGeneIdToNameMap.get(geneCode);
+        final String geneSymbol = this.zfinGeneIdToSymbolMap.get(geneCode);
+        if (geneSymbol != null) {
+            geneNode.setLabel(geneSymbol);
+            if (geneName != null) {
+                final NodeAlias na = new NodeAlias();
+                na.setNodeId(geneId);
+                na.setTargetId(geneName);
+                na.setScope(Scope.EXACT);
+                na.setCategoryId(Vocab.FULL_NAME_SYNONYM_CATEGORY);
+                graph.addStatement(na);
             }
         }
+        graph.addNode(geneNode);
+    }
 
-        reader.close();
+    private void addGenotype(String genotypeId, String genotype, String geneId, boolean isMorpholino) {
+        final Node genotypeNode;
+        if (isMorpholino) {
+            genotypeNode = OBDUtil.createInstanceNode(genotypeId, Vocab.MORPHOLINO_OLIGO);
+        } else {
+            genotypeNode = OBDUtil.createInstanceNode(genotypeId, Vocab.GENOTYPE_TYPE_ID);
+        }
+        if (genotype != null) genotypeNode.setLabel(genotype);
+        graph.addNode(genotypeNode);
+        this.graph.addLinkStatement(genotypeNode, Vocab.GENOTYPE_GENE_REL_ID, geneId);
     }
 
-    public void loadZfinData() throws MalformedURLException, IOException {
-        final URL phenotypeURL = new URL(System.getProperty(PHENOTYPE_URL));
-        BufferedReader br1 = new BufferedReader(new InputStreamReader(phenotypeURL.openStream()));
-        String phenoFileLine;
-        while ((phenoFileLine = br1.readLine()) != null) {
-            String genotypeId, genotype, publicationID, environmentId, geneId = null; 
-            String[] columns = phenoFileLine.split("\\t");
-            if(columns.length < 10){ 
-                log().info("Skipping line because of inadequate number of tab delimited components: " + phenoFileLine);
-                continue;
-            }
-            genotypeId = columns[0].trim();
-            genotype = columns[1].trim();
-            publicationID = columns[10].trim();
-            environmentId = columns[11].trim();
-
-            final boolean isMorpholino;
-            if (this.wildtypeLines.contains(genotypeId)) {
-                //FIXME this is a dangerous assumption
-                isMorpholino = true;
-                genotypeId = this.envToMorpholinoMap.get(environmentId);
-                genotype = this.morpholinoIdToLabelMap.get(genotypeId);
-                if (genotypeId != null) { geneId = this.morpholinoToGeneMap.get(genotypeId); }
+    /**
+     * Write the statements accumulated so far to the database and start a new graph.
+     */
+    private void flushGraph() throws SQLException {
+        log().debug("Writing " + this.graph.getStatements().size() + " statements");
+        this.writer.putGraph(this.graph);
+        this.graph = new Graph();
+    }
 
-            } else {
-                isMorpholino = false;
-                geneId = this.genotypeToGeneMap.get(genotypeId);
+    public int getTaoLookupMisses() {
+        return this.taoLookupMisses.get();
+    }
+
+    private static String normalizetoZfin(String string) {
+        return ((string.startsWith("ZFIN:")) ? string : ("ZFIN:" + string));
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+    /**
+     * The lookups and phenotype for one line of the phenotype file.
+     */
+    private static class ParsedLine {
+
+        int genotypeCode;
+        int geneCode;
+        String genotype;
+        boolean isMorpholino;
+        String publicationID;
+        CompositionalDescription phenotype;
+
+    }
+
+    /**
+     * A run of lines of the phenotype file, with the parsed line (or null) for each.
+     */
+    private static class ParsedBatch {
+
+        final List<String> lines;
+        final List<ParsedLine> parsedLines;
+
+        public ParsedBatch(List<String> lines, List<ParsedLine> parsedLines) {
+            this.lines = lines;
+            this.parsedLines = parsedLines;
+        }
+
+    }
+
+    /**
+     * Reads the phenotype file in batches of lines and parses them, either in the calling thread or on a pool of
+     * threads. Parsed batches are returned in file order, so the graph built from them is the same either way.
+     * Only a few more batches are read ahead than there are threads.
+     */
+    private class PhenotypeFileParser {
+
+        private final BufferedReader reader;
+        private final ExecutorService executor;
+        private final LinkedList<Future<ParsedBatch>> pending = new LinkedList<Future<ParsedBatch>>();
+        private final int maxPending;
+        private boolean endOfFile = false;
+
+        public PhenotypeFileParser(BufferedReader reader, int threads) {
+            this.reader = reader;
+            this.executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+            this.maxPending = threads * 2;
+        }
+
+        /**
+         * Return the next parsed batch, or null at the end of the file.
+         */
+        public ParsedBatch next() throws IOException {
+            if (this.executor == null) {
+                final List<String> lines = this.readBatch();
+                return (lines != null) ? parseBatch(lines) : null;
             }
-            if (geneId != null && genotypeId != null) {
-                final CompositionalDescription phenotype = this.createPhenotype(columns);
-                graph.addStatements(phenotype);
-                final Node geneNode = OBDUtil.createInstanceNode(geneId, Vocab.GENE_TYPE_ID);
-                geneNode.setSourceId(Vocab.GENE_NAMESPACE);
-                final String geneName = this.zfinGeneIdToNameMap.get(geneId);
-                final String geneSymbol = this.zfinGeneIdToSymbolMap.get(geneId);
-                if (geneSymbol != null) {
-                    geneNode.setLabel(geneSymbol);
-                    if (geneName != null) {
-                        final NodeAlias na = new NodeAlias();
-                        na.setNodeId(geneId);
-                        na.setTargetId(geneName);
-                        na.setScope(Scope.EXACT);
-                        na.setCategoryId(Vocab.FULL_NAME_SYNONYM_CATEGORY);
-                        graph.addStatement(na);
-                    }
-                }
-                graph.addNode(geneNode);
-                final Node genotypeNode;
-                if (isMorpholino) {
-                    genotypeNode = OBDUtil.createInstanceNode(genotypeId, Vocab.MORPHOLINO_OLIGO);
-                } else {
-                    genotypeNode = OBDUtil.createInstanceNode(genotypeId, Vocab.GENOTYPE_TYPE_ID);
+            while ((this.pending.size() < this.maxPending) && !this.endOfFile) {
+                final List<String> lines = this.readBatch();
+                if (lines != null) {
+                    this.pending.add(this.executor.submit(new Callable<ParsedBatch>() {
+                        public ParsedBatch call() {
+                            return parseBatch(lines);
+                        }
+                    }));
                 }
-                if (genotype != null) genotypeNode.setLabel(genotype);
-                graph.addNode(genotypeNode);
-                this.graph.addLinkStatement(genotypeNode, Vocab.GENOTYPE_GENE_REL_ID, geneId);
-                final LinkStatement annotation = new LinkStatement(genotypeId, Vocab.GENOTYPE_PHENOTYPE_REL_ID, phenotype.getId());
-                if (publicationID != null) {
-                    annotation.addSubLinkStatement(Vocab.POSITED_BY_REL_ID, publicationID);  
-                } else {
-                    log().error("No publication for annotation: " + phenoFileLine);
+            }
+            if (this.pending.isEmpty()) {
+                return null;
+            }
+            try {
+                return this.pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing phenotype file");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
                 }
-                this.graph.addStatement(annotation);
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        private List<String> readBatch() throws IOException {
+            final List<String> lines = new ArrayList<String>(LINES_PER_BATCH);
+            String line;
+            while ((lines.size() < LINES_PER_BATCH) && ((line = this.reader.readLine()) != null)) {
+                lines.add(line);
+            }
+            if (lines.size() < LINES_PER_BATCH) {
+                this.endOfFile = true;
+            }
+            return lines.isEmpty() ? null : lines;
+        }
+
+        public void close() {
+            if (this.executor != null) {
+                this.executor.shutdownNow();
             }
         }
-        this.shard.putGraph(graph);
-    }
 
-    private String normalizetoZfin(String string) {
-        return ((string.startsWith("ZFIN:")) ? string : ("ZFIN:" + string));
     }
 
-    private Logger log() {
-        return Logger.getLogger(this.getClass());
+    /**
+     * Reads the lines of the ZFIN file named by a system property, keeping a record for each line which parse accepts.
+     */
+    private abstract static class ZfinFileReader implements Callable<List<String[]>> {
+
+        private final String urlProperty;
+
+        public ZfinFileReader(String urlProperty) {
+            this.urlProperty = urlProperty;
+        }
+
+        /**
+         * Return the record for the line at the cursor, or null to skip it.
+         */
+        abstract String[] parse(TSVCursor columns);
+
+        public List<String[]> call() throws IOException {
+            final URL url = new URL(System.getProperty(this.urlProperty));
+            final BufferedReader reader = InputReaderFactory.createReader(url);
+            final TSVCursor columns = new TSVCursor();
+            final List<String[]> records = new ArrayList<String[]>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] record = this.parse(columns.reset(line));
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+            reader.close();
+            return records;
+        }
+
     }
 
     public static void main(String[] args) throws SQLException, ClassNotFoundException, MalformedURLException, IOException {
@@ -458,6 +733,7 @@ public class ZfinObdBridge {
 //            System.setProperty(entry.getKey().toString(), entry.getValue().toString());
 //        }
 
+        LoadCheckpoint.parseArguments(args);
         ZfinObdBridge zob = new ZfinObdBridge();
         zob.loadZfinData();
     }